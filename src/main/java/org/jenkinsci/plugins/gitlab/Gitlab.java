@@ -1,25 +1,95 @@
 package org.jenkinsci.plugins.gitlab;
 
+import java.io.Closeable;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.GitlabAPIException;
 import org.gitlab.api.models.GitlabCommitStatus;
 import org.gitlab.api.models.GitlabProject;
 
 /**
  * GitlabAPI Wrapper Class
+ *
+ * One instance is shared by all jobs of the configured GitLab host. The underlying HTTP connections are
+ * kept alive and reused by the JVM, the number of requests running at the same time is bounded by
+ * {@link #acquire()}.
  */
 public class Gitlab {
 
-    private GitlabAPI api;
+    private static final Logger LOGGER = Logger.getLogger(Gitlab.class.getName());
+
+    private static final AtomicInteger clientsCreated = new AtomicInteger();
+    private static final int COMMIT_STATUS_CACHE_SIZE = 10000;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final long RATE_LIMIT_BACKOFF_MILLIS = 60000;
+    private static final ThreadLocal<GitlabRateLimiter.Priority> priority = new ThreadLocal<GitlabRateLimiter.Priority>() {
+        @Override
+        protected GitlabRateLimiter.Priority initialValue() {
+            return GitlabRateLimiter.Priority.HIGH;
+        }
+    };
+
+    private volatile GitlabAPI api;
+
+    private final GitlabProjectCache projects;
+    private final GitlabCommitStatusCache commitStatuses = new GitlabCommitStatusCache(COMMIT_STATUS_CACHE_SIZE);
+
+    private final GitlabRateLimiter rateLimiter;
+    private final GitlabCircuitBreaker circuitBreaker = new GitlabCircuitBreaker();
+    private final int maxConcurrentRequests;
+    private final Semaphore permits;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong waitedRequests = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    public Gitlab() {
+        this(GitlabBuildTrigger.getDesc().getMaxConcurrentRequests(),
+                new GitlabProjectCache(GitlabBuildTrigger.getDesc().getProjectCacheTtl(), TimeUnit.SECONDS,
+                        GitlabBuildTrigger.getDesc().getProjectCacheSize()),
+                new GitlabRateLimiter(GitlabBuildTrigger.getDesc().getRequestsPerSecond()));
+    }
+
+    Gitlab(int maxConcurrentRequests, GitlabProjectCache projects, GitlabRateLimiter rateLimiter) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.permits = new Semaphore(maxConcurrentRequests, true);
+        this.projects = projects;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Sets the priority of the requests made by the current thread, background polling runs with
+     * {@link GitlabRateLimiter.Priority#LOW}.
+     *
+     * @param newPriority Priority
+     * @return the previous priority, to be restored afterwards
+     */
+    public static GitlabRateLimiter.Priority setPriority(GitlabRateLimiter.Priority newPriority) {
+        GitlabRateLimiter.Priority previous = priority.get();
+        priority.set(newPriority);
+        return previous;
+    }
+
+    private synchronized void connect() {
+        if (api != null) {
+            return;
+        }
 
-    private void connect() {
         String privateToken = GitlabBuildTrigger.getDesc().getBotApiTokenSecret().getPlainText();
         String apiUrl = GitlabBuildTrigger.getDesc().getGitlabHostUrl();
-        
-        api = GitlabAPI.connect(apiUrl, privateToken);
-        
-        api.ignoreCertificateErrors(GitlabBuildTrigger.getDesc().isIgnoreCertificateErrors());
+
+        GitlabAPI connected = GitlabAPI.connect(apiUrl, privateToken);
+
+        connected.ignoreCertificateErrors(GitlabBuildTrigger.getDesc().isIgnoreCertificateErrors());
+        clientsCreated.incrementAndGet();
+        api = connected;
     }
 
     public GitlabAPI get() {
@@ -29,9 +99,212 @@ public class Gitlab {
 
         return api;
     }
-    
-    public synchronized GitlabCommitStatus changeCommitStatus(Integer projectId, String branch, String commitHash, String commitStatus, String targetUrl) throws IOException {
-    	GitlabProject project = get().getProject(projectId);
-    	return get().createCommitStatus(project, commitHash, commitStatus, branch, "jenkins", targetUrl, null);
+
+    /**
+     * Waits until another request may be sent to GitLab, both under the rate limit and the number of
+     * concurrent requests. The returned permit has to be closed once the request has completed.
+     *
+     * @return Permit
+     * @throws IOException when interrupted while waiting or when GitLab is unavailable
+     */
+    public Permit acquire() throws IOException {
+        if (isCircuitOpen()) {
+            circuitBreaker.rejected();
+            throw new CircuitOpenException();
+        }
+        rateLimiter.acquire(priority.get());
+        requests.incrementAndGet();
+        if (!permits.tryAcquire()) {
+            waitedRequests.incrementAndGet();
+            long started = System.nanoTime();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a GitLab connection");
+            } finally {
+                waitNanos.addAndGet(System.nanoTime() - started);
+            }
+        }
+        return new Permit(permits, circuitBreaker);
+    }
+
+    /**
+     * Fails fast while GitLab is known to be down. Once the breaker has been open long enough the calling
+     * thread probes GitLab, all other callers keep failing fast until the probe has completed.
+     *
+     * @return true while no requests should be sent to GitLab
+     */
+    public boolean isCircuitOpen() {
+        if (circuitBreaker.startProbe()) {
+            try {
+                get().getUser();
+                circuitBreaker.probeSucceeded();
+                LOGGER.info("GitLab is reachable again");
+            } catch (IOException | RuntimeException e) {
+                // any failure has to end the probe, the breaker would stay half open otherwise
+                circuitBreaker.probeFailed();
+                LOGGER.warning("GitLab is still unavailable: " + e);
+            }
+        }
+        return circuitBreaker.isOpen();
+    }
+
+    public GitlabCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @param projectId the id of the project
+     * @return the project, from the project cache when possible
+     * @throws IOException
+     */
+    public GitlabProject getProject(Integer projectId) throws IOException {
+        GitlabProject project = projects.get(projectId);
+        if (project == null) {
+            try (Permit permit = acquire()) {
+                project = get().getProject(projectId);
+            }
+            projects.put(project);
+        }
+        return project;
+    }
+
+    /**
+     * @param pathWithNamespace the path of the project including its namespace
+     * @return the project, from the project cache when possible
+     * @throws IOException
+     */
+    public GitlabProject getProject(String pathWithNamespace) throws IOException {
+        GitlabProject project = projects.get(pathWithNamespace);
+        if (project == null) {
+            try (Permit permit = acquire()) {
+                project = get().getProject(pathWithNamespace);
+            }
+            projects.put(project);
+        }
+        return project;
+    }
+
+    /**
+     * Lets the client react to a failed request, e.g. back off when GitLab enforces its rate limit.
+     *
+     * @param e the error of the request
+     */
+    public void report(IOException e) {
+        if (e instanceof GitlabAPIException && ((GitlabAPIException) e).getResponseCode() == TOO_MANY_REQUESTS) {
+            LOGGER.warning("GitLab rate limit exceeded, pausing requests for " + RATE_LIMIT_BACKOFF_MILLIS + "ms");
+            rateLimiter.backOff(RATE_LIMIT_BACKOFF_MILLIS);
+        } else if (isOutage(e)) {
+            circuitBreaker.recordFailure();
+        }
+    }
+
+    /**
+     * Client errors like a missing resource are answers from a working GitLab, everything else counts
+     * towards opening the circuit breaker.
+     */
+    private static boolean isOutage(IOException e) {
+        if (e instanceof CircuitOpenException || e instanceof FileNotFoundException) {
+            return false;
+        }
+        if (e instanceof GitlabAPIException) {
+            return ((GitlabAPIException) e).getResponseCode() >= 500;
+        }
+        return true;
+    }
+
+    public GitlabRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public GitlabProjectCache getProjectCache() {
+        return projects;
+    }
+
+    public GitlabCommitStatusCache getCommitStatusCache() {
+        return commitStatuses;
+    }
+
+    /**
+     * Posts the status directly to the project id, without looking up the project first.
+     */
+    public GitlabCommitStatus changeCommitStatus(Integer projectId, String branch, String commitHash, String commitStatus, String targetUrl, String name) throws IOException {
+        String tailUrl = GitlabProject.URL + "/" + projectId + "/statuses/" + commitHash;
+        GitlabCommitStatus status;
+        try (Permit permit = acquire()) {
+            status = get().dispatch()
+                    .with("state", commitStatus)
+                    .with("ref", branch)
+                    .with("name", name)
+                    .with("target_url", targetUrl)
+                    .to(tailUrl, GitlabCommitStatus.class);
+        }
+        commitStatuses.put(projectId, commitHash, name, commitStatus);
+        return status;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public int getActiveRequests() {
+        return maxConcurrentRequests - permits.availablePermits();
+    }
+
+    public int getWaitingRequests() {
+        return permits.getQueueLength();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getWaitedRequestCount() {
+        return waitedRequests.get();
+    }
+
+    /**
+     * @return the average time in milliseconds a request had to wait for a free connection
+     */
+    public double getAverageWaitMillis() {
+        long count = requests.get();
+        return count == 0 ? 0 : waitNanos.get() / (count * 1000000.0);
+    }
+
+    /**
+     * @return how many clients have been created, every request beyond these reused a shared client
+     */
+    public static int getClientsCreated() {
+        return clientsCreated.get();
+    }
+
+    public static final class Permit implements Closeable {
+        private final Semaphore permits;
+        private final GitlabCircuitBreaker circuitBreaker;
+        private boolean released;
+
+        Permit(Semaphore permits, GitlabCircuitBreaker circuitBreaker) {
+            this.permits = permits;
+            this.circuitBreaker = circuitBreaker;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                permits.release();
+                circuitBreaker.recordCall();
+            }
+        }
+    }
+
+    /**
+     * Thrown instead of sending a request while the circuit breaker is open.
+     */
+    public static class CircuitOpenException extends IOException {
+        public CircuitOpenException() {
+            super("GitLab is unavailable, not sending the request");
+        }
     }
 }
@@ -8,8 +8,11 @@ import hudson.triggers.Trigger;
 import hudson.triggers.TriggerDescriptor;
 import hudson.util.FormValidation;
 import hudson.util.Secret;
+import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
@@ -17,12 +20,16 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public final class GitlabBuildTrigger extends Trigger<AbstractProject<?, ?>> {
 
     private static final Logger LOGGER = Logger.getLogger(GitlabBuildTrigger.class.getName());
+    public static final String DEFAULT_COMMIT_STATUS_NAME = "jenkins";
+    private static final AtomicLong coalescedBuilds = new AtomicLong();
 
     private final String projectPath;
     private final String targetBranchRegex;
@@ -33,6 +40,10 @@ public final class GitlabBuildTrigger extends Trigger<AbstractProject<?, ?>> {
     private final boolean publishBuildProgressMessages;
     private final boolean autoCloseFailed;
     private final boolean autoMergePassed;
+    private String commitStatusName;
+    private boolean cancelSupersededBuilds;
+    private boolean coalesceQueuedBuilds;
+    private int quietPeriod;
     transient private GitlabMergeRequestBuilder builder;
 
     @DataBoundConstructor
@@ -62,12 +73,14 @@ public final class GitlabBuildTrigger extends Trigger<AbstractProject<?, ?>> {
     @Override
     public void start(AbstractProject<?, ?> project, boolean newInstance) {
         try {
-            GitlabWebhooks.addTrigger(this);
+            GitlabWebhooks.addTrigger(project.getFullName(), this);
+            // the configuration may point to a moved or renamed project
+            DESCRIPTOR.getGitlab().getProjectCache().invalidate(projectPath);
 
             builder = GitlabMergeRequestBuilder.getBuilder()
                     .setProject(project)
                     .setTrigger(this)
-                    .setMergeRequests(DESCRIPTOR.getMergeRequests(project.getFullName()))
+                    .setMergeRequests(GitlabMergeRequestStore.get().load(project))
                     .build();
         } catch (IllegalStateException ex) {
             LOGGER.log(Level.SEVERE, "Can't start trigger", ex);
@@ -95,11 +108,104 @@ public final class GitlabBuildTrigger extends Trigger<AbstractProject<?, ?>> {
         List<ParameterValue> listValues = new ArrayList<>(values.values());
         if (job == null) {
             return null;
-        } else {
-            return job.scheduleBuild2(0, cause, new ParametersAction(listValues));
+        }
+
+        synchronized (this) {
+            if (coalesceQueuedBuilds) {
+                QueueTaskFuture<?> waiting = coalesce(cause, listValues);
+                if (waiting != null) {
+                    return waiting;
+                }
+            }
+            return job.scheduleBuild2(Math.max(0, quietPeriod), cause, new ParametersAction(listValues));
         }
     }
 
+    /**
+     * Moves the cause and the parameters onto the build of the merge request that is still waiting in the
+     * queue, so the merge request never has more than one build waiting. Other causes of the waiting build
+     * are kept.
+     *
+     * @return the future of the waiting build, null if no build of the merge request is waiting
+     */
+    private QueueTaskFuture<?> coalesce(final GitlabCause cause, final List<ParameterValue> values) {
+        Jenkins instance = Jenkins.getInstance();
+        if (instance == null) {
+            return null;
+        }
+
+        final Queue queue = instance.getQueue();
+        Coalesced coalesced;
+        try {
+            // the item must not leave the queue while its actions are replaced
+            coalesced = Queue.withLock(new Callable<Coalesced>() {
+                @Override
+                public Coalesced call() {
+                    for (Queue.Item item : queue.getItems(job)) {
+                        if (!(item instanceof Queue.WaitingItem)) {
+                            continue;
+                        }
+                        GitlabCause waiting = getGitlabCause(item, cause.getMergeRequestId());
+                        if (waiting == null) {
+                            continue;
+                        }
+
+                        List<Cause> causes = new ArrayList<Cause>(item.getCauses());
+                        causes.remove(waiting);
+                        causes.add(cause);
+                        item.replaceAction(new CauseAction(causes));
+                        item.replaceAction(new ParametersAction(values));
+                        return new Coalesced(item, waiting);
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to look for a waiting build of merge request " + cause.getMergeRequestIid(), e);
+            return null;
+        }
+        if (coalesced == null) {
+            return null;
+        }
+
+        coalescedBuilds.incrementAndGet();
+        LOGGER.info("Merge request " + cause.getMergeRequestIid() + " already waits in the queue, updated it to " + cause.getLastCommitId());
+
+        String replacedCommitId = coalesced.replaced.getLastCommitId();
+        if (builder != null && !StringUtils.equals(replacedCommitId, cause.getLastCommitId())) {
+            String url = StringUtils.defaultString(instance.getRootUrl()) + coalesced.item.getUrl();
+            builder.getRepository().changeCommitStatus(cause.getMergeRequestId(), replacedCommitId, GitlabBuilds.CANCELED, url);
+            builder.getRepository().changeCommitStatus(cause.getMergeRequestId(), cause.getLastCommitId(), "pending", url);
+        }
+        return coalesced.item.getFuture();
+    }
+
+    private static GitlabCause getGitlabCause(Queue.Item item, Integer mergeRequestId) {
+        for (Cause cause : item.getCauses()) {
+            if (cause instanceof GitlabCause && mergeRequestId.equals(((GitlabCause) cause).getMergeRequestId())) {
+                return (GitlabCause) cause;
+            }
+        }
+        return null;
+    }
+
+    private static final class Coalesced {
+        private final Queue.Item item;
+        private final GitlabCause replaced;
+
+        Coalesced(Queue.Item item, GitlabCause replaced) {
+            this.item = item;
+            this.replaced = replaced;
+        }
+    }
+
+    /**
+     * @return how many builds were merged into a build of the same merge request waiting in the queue
+     */
+    public static long getCoalescedBuildCount() {
+        return coalescedBuilds.get();
+    }
+
     private Map<String, ParameterValue> getDefaultParameters() {
         Map<String, ParameterValue> values = new HashMap<>();
         if (job != null) {
@@ -125,6 +231,8 @@ public final class GitlabBuildTrigger extends Trigger<AbstractProject<?, ?>> {
         }
 
 
+        GitlabWebhooks.removeTrigger(job.getFullName(), this);
+
         if (builder != null) {
             builder.stop();
             builder = null;
@@ -142,7 +250,6 @@ public final class GitlabBuildTrigger extends Trigger<AbstractProject<?, ?>> {
         if (builder != null) {
             builder.run();
         }
-        DESCRIPTOR.save();
     }
 
     @Override
@@ -200,10 +307,66 @@ public final class GitlabBuildTrigger extends Trigger<AbstractProject<?, ?>> {
         return autoMergePassed;
     }
 
+    public String getCommitStatusName() {
+        return commitStatusName;
+    }
+
+    @DataBoundSetter
+    public void setCommitStatusName(String commitStatusName) {
+        this.commitStatusName = commitStatusName;
+    }
+
+    public boolean getCancelSupersededBuilds() {
+        return cancelSupersededBuilds;
+    }
+
+    @DataBoundSetter
+    public void setCancelSupersededBuilds(boolean cancelSupersededBuilds) {
+        this.cancelSupersededBuilds = cancelSupersededBuilds;
+    }
+
+    public boolean getCoalesceQueuedBuilds() {
+        return coalesceQueuedBuilds;
+    }
+
+    @DataBoundSetter
+    public void setCoalesceQueuedBuilds(boolean coalesceQueuedBuilds) {
+        this.coalesceQueuedBuilds = coalesceQueuedBuilds;
+    }
+
+    public int getQuietPeriod() {
+        return quietPeriod;
+    }
+
+    /**
+     * @param quietPeriod seconds a build waits in the queue for newer commits, 0 to build right away
+     */
+    @DataBoundSetter
+    public void setQuietPeriod(int quietPeriod) {
+        this.quietPeriod = quietPeriod;
+    }
+
+    /**
+     * @return the name the commit statuses of this job are published with
+     */
+    public String getCommitStatusContext() {
+        return StringUtils.isBlank(commitStatusName) ? DEFAULT_COMMIT_STATUS_NAME : commitStatusName.trim();
+    }
+
     @Extension
     public static final GitlabBuildTriggerDescriptor DESCRIPTOR = new GitlabBuildTriggerDescriptor();
 
     public static final class GitlabBuildTriggerDescriptor extends TriggerDescriptor {
+        static final int DEFAULT_WEBHOOK_QUEUE_CAPACITY = 100;
+        static final int DEFAULT_WEBHOOK_WORKER_THREADS = 2;
+        static final long DEFAULT_WEBHOOK_COALESCE_WINDOW = 2000;
+        static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+        static final long DEFAULT_PROJECT_CACHE_TTL = 600;
+        static final int DEFAULT_PROJECT_CACHE_SIZE = 1000;
+        static final int DEFAULT_POLLING_CONCURRENCY = 1;
+        static final int DEFAULT_FULL_CHECK_INTERVAL = 10;
+        static final double DEFAULT_REQUESTS_PER_SECOND = 0;
+
         private String botUsername = "jenkins";
         private String gitlabHostUrl;
         private String assigneeFilter = "jenkins";
@@ -218,15 +381,26 @@ public final class GitlabBuildTrigger extends Trigger<AbstractProject<?, ?>> {
         private String unstableMessage = "Build finished.  Tests FAILED.";
         private String failureMessage = "Build finished.  Tests FAILED.";
         private boolean ignoreCertificateErrors = false;
+        private int webhookQueueCapacity = DEFAULT_WEBHOOK_QUEUE_CAPACITY;
+        private int webhookWorkerThreads = DEFAULT_WEBHOOK_WORKER_THREADS;
+        private long webhookCoalesceWindow = DEFAULT_WEBHOOK_COALESCE_WINDOW;
+        private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+        private long projectCacheTtl = DEFAULT_PROJECT_CACHE_TTL;
+        private int projectCacheSize = DEFAULT_PROJECT_CACHE_SIZE;
+        private int pollingConcurrency = DEFAULT_POLLING_CONCURRENCY;
+        private boolean incrementalPolling;
+        private int fullCheckInterval = DEFAULT_FULL_CHECK_INTERVAL;
+        private double requestsPerSecond = DEFAULT_REQUESTS_PER_SECOND;
 
         private transient Gitlab gitlab;
+        /**
+         * Merge requests of each job as saved by older versions, moved into the job directories by
+         * {@link GitlabMergeRequestStore} when the job is started.
+         */
         private Map<String, Map<Integer, GitlabMergeRequestWrapper>> jobs;
 
         public GitlabBuildTriggerDescriptor() {
             load();
-            if (jobs == null) {
-                jobs = new HashMap<>();
-            }
             if (botApiTokenSecret == null) {
                 botApiTokenSecret = Secret.fromString(botApiToken);
                 botApiToken = null;
@@ -257,9 +431,22 @@ public final class GitlabBuildTrigger extends Trigger<AbstractProject<?, ?>> {
             unstableMessage = formData.getString("unstableMessage");
             failureMessage = formData.getString("failureMessage");
             ignoreCertificateErrors = formData.getBoolean("ignoreCertificateErrors");
+            webhookQueueCapacity = formData.optInt("webhookQueueCapacity", DEFAULT_WEBHOOK_QUEUE_CAPACITY);
+            webhookWorkerThreads = formData.optInt("webhookWorkerThreads", DEFAULT_WEBHOOK_WORKER_THREADS);
+            webhookCoalesceWindow = formData.optLong("webhookCoalesceWindow", DEFAULT_WEBHOOK_COALESCE_WINDOW);
+            maxConcurrentRequests = formData.optInt("maxConcurrentRequests", DEFAULT_MAX_CONCURRENT_REQUESTS);
+            projectCacheTtl = formData.optLong("projectCacheTtl", DEFAULT_PROJECT_CACHE_TTL);
+            projectCacheSize = formData.optInt("projectCacheSize", DEFAULT_PROJECT_CACHE_SIZE);
+            pollingConcurrency = formData.optInt("pollingConcurrency", DEFAULT_POLLING_CONCURRENCY);
+            incrementalPolling = formData.optBoolean("incrementalPolling");
+            fullCheckInterval = formData.optInt("fullCheckInterval", DEFAULT_FULL_CHECK_INTERVAL);
+            requestsPerSecond = formData.optDouble("requestsPerSecond", DEFAULT_REQUESTS_PER_SECOND);
 
             save();
 
+            GitlabWebhookQueue.get().setWorkerThreads(webhookWorkerThreads);
+            GitlabPollingExecutor.get().setThreads(getPollingConcurrency());
+
             gitlab = new Gitlab();
 
             return super.configure(req, formData);
@@ -326,7 +513,7 @@ public final class GitlabBuildTrigger extends Trigger<AbstractProject<?, ?>> {
             return failureMessage;
         }
 
-        public Gitlab getGitlab() {
+        public synchronized Gitlab getGitlab() {
             if (gitlab == null) {
                 gitlab = new Gitlab();
             }
@@ -341,17 +528,87 @@ public final class GitlabBuildTrigger extends Trigger<AbstractProject<?, ?>> {
             return publishBuildProgressMessages;
         }
 
-        public Map<Integer, GitlabMergeRequestWrapper> getMergeRequests(String projectName) {
-            Map<Integer, GitlabMergeRequestWrapper> result;
+        public int getWebhookQueueCapacity() {
+            return webhookQueueCapacity > 0 ? webhookQueueCapacity : DEFAULT_WEBHOOK_QUEUE_CAPACITY;
+        }
+
+        public int getWebhookWorkerThreads() {
+            return webhookWorkerThreads > 0 ? webhookWorkerThreads : DEFAULT_WEBHOOK_WORKER_THREADS;
+        }
+
+        /**
+         * @return the time in milliseconds to wait for further webhooks of the same merge request, 0 disables coalescing
+         */
+        public long getWebhookCoalesceWindow() {
+            return webhookCoalesceWindow;
+        }
+
+        public int getMaxConcurrentRequests() {
+            return maxConcurrentRequests > 0 ? maxConcurrentRequests : DEFAULT_MAX_CONCURRENT_REQUESTS;
+        }
+
+        /**
+         * @return how long project metadata is cached in seconds, 0 disables the cache
+         */
+        public long getProjectCacheTtl() {
+            return projectCacheTtl;
+        }
+
+        public int getProjectCacheSize() {
+            return projectCacheSize;
+        }
+
+        /**
+         * @return how many merge requests of a project are checked at the same time while polling, 1 checks them one after another
+         */
+        public int getPollingConcurrency() {
+            return pollingConcurrency > 0 ? pollingConcurrency : DEFAULT_POLLING_CONCURRENCY;
+        }
+
+        /**
+         * @return true when polling only asks for merge requests updated since the previous run
+         */
+        public boolean isIncrementalPolling() {
+            return incrementalPolling;
+        }
+
+        /**
+         * @return after how many checks an unchanged merge request is checked against GitLab again, 0 always checks
+         */
+        public int getFullCheckInterval() {
+            return fullCheckInterval;
+        }
+
+        /**
+         * @return the maximum sustained rate of requests sent to GitLab, 0 for no limit
+         */
+        public double getRequestsPerSecond() {
+            return requestsPerSecond;
+        }
 
-            if (jobs.containsKey(projectName)) {
-                result = jobs.get(projectName);
-            } else {
-                result = new HashMap<Integer, GitlabMergeRequestWrapper>();
-                jobs.put(projectName, result);
+        /**
+         * @param projectName the full name of the job
+         * @return the merge requests of the job saved in the global configuration, null if there are none
+         */
+        synchronized Map<Integer, GitlabMergeRequestWrapper> getLegacyMergeRequests(String projectName) {
+            return jobs == null ? null : jobs.get(projectName);
+        }
+
+        /**
+         * Drops the merge requests of the job from the global configuration once they are saved elsewhere.
+         *
+         * @param projectName the full name of the job
+         */
+        synchronized void removeLegacyMergeRequests(String projectName) {
+            if (jobs == null || !jobs.containsKey(projectName)) {
+                return;
             }
 
-            return result;
+            jobs.remove(projectName);
+            if (jobs.isEmpty()) {
+                jobs = null;
+            }
+            save();
         }
 
         public Secret getBotApiTokenSecret() {
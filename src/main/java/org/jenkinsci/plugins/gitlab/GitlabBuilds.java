@@ -1,94 +1,97 @@
 package org.jenkinsci.plugins.gitlab;
 
 import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
 import hudson.model.Cause;
+import hudson.model.Executor;
+import hudson.model.Queue;
 import hudson.model.Result;
 import hudson.model.queue.QueueTaskFuture;
+import jenkins.model.CauseOfInterruption;
+import jenkins.model.InterruptedBuildAction;
 import jenkins.model.Jenkins;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
-import java.util.Comparator;
 import java.util.Collections;
 
 import org.apache.commons.lang.StringUtils;
 import org.gitlab.api.GitlabAPI;
 import org.gitlab.api.models.GitlabCommitStatus;
 import org.gitlab.api.models.GitlabMergeRequest;
-import org.gitlab.api.models.GitlabNote;
 import org.gitlab.api.models.GitlabProject;
 
 public class GitlabBuilds {
 
     private static final Logger LOGGER = Logger.getLogger(GitlabBuilds.class.getName());
+    static final String CANCELED = "canceled";
+
+    private static final AtomicLong supersededBuilds = new AtomicLong();
+    private static final AtomicLong savedMillis = new AtomicLong();
 
     private GitlabBuildTrigger trigger;
     private GitlabRepository repository;
+    private volatile GitlabMergeRequestFilter filter;
 
     public GitlabBuilds(GitlabBuildTrigger trigger, GitlabRepository repository) {
         this.trigger = trigger;
         this.repository = repository;
     }
 
-    public String build(GitlabCause cause, Map<String, String> customParameters, GitlabProject project, GitlabMergeRequest mergeRequest) throws IOException {
+    /**
+     * @param cause GitlabCause
+     * @param customParameters Map
+     * @param project GitlabProject
+     * @param mergeRequest GitlabMergeRequest
+     * @param noteIndex the notes of the merge request seen so far
+     * @return the message describing the triggered build, empty if no build was triggered
+     * @throws IOException
+     */
+    public String build(GitlabCause cause, Map<String, String> customParameters, GitlabProject project, GitlabMergeRequest mergeRequest, GitlabNoteIndex noteIndex) throws IOException {
 
         boolean shouldRun = true;
-        GitlabAPI api = trigger.getBuilder().getGitlab().get();
         String triggerComment = trigger.getTriggerComment();
-        GitlabNote lastNote = getLastNote(mergeRequest, api);
+        String lastNoteBody = noteIndex != null ? noteIndex.getLastNoteBody() : null;
 
-        if (isAllowedByTargetBranchRegex(cause.getTargetBranch())) {
-            LOGGER.log(Level.INFO, "The target regex matches the target branch {" + cause.getTargetBranch() + "}. Source branch {" + cause.getSourceBranch() + "}");
-            shouldRun = true;
-        } else {
-            LOGGER.log(Level.INFO, "The target regex did not match the target branch {" + cause.getTargetBranch() + "}. Not triggering this job. Source branch {" + cause.getSourceBranch() + "}");
-            shouldRun = false;
+        boolean triggeredByComment = false;
+        if (lastNoteBody != null && lastNoteBody.equals(triggerComment)) {
+            LOGGER.info("Trigger comment found");
+            triggeredByComment = true;
         }
 
-        if (hasCommitStatus(project, cause.getLastCommitId(), api)) {
+        // the filters need no request to GitLab, the commit status lookup only runs for merge requests passing them
+        if (getFilter().rejects(mergeRequest, cause.getTargetBranch(), triggeredByComment)) {
+            shouldRun = false;
+        } else if (!triggeredByComment && hasCommitStatus(project, cause.getLastCommitId(), trigger.getBuilder().getGitlab().get())) {
             shouldRun = false;
-        }
-
-        if (lastNote != null && lastNote.getBody().equals(triggerComment)) {
-            LOGGER.info("Trigger comment found");
-            shouldRun = true;
         }
 
         if (shouldRun) {
-            String assigneeFilter = trigger.getAssigneeFilter();
-
-            if (!"".equals(assigneeFilter)) {
-                String assigneeName = mergeRequest.getAssignee() != null ? mergeRequest.getAssignee().getUsername() : null;
-                shouldRun = filterMatch(assigneeFilter, assigneeName, "Assignee");
+            // claim the commit so that a concurrent evaluation of the same commit does not build it again
+            GitlabCommitStatusCache statuses = trigger.getBuilder().getGitlab().getCommitStatusCache();
+            String statusName = trigger.getCommitStatusContext();
+            String known = statuses.putIfAbsent(project.getId(), cause.getLastCommitId(), statusName, GitlabCommitStatusCache.CLAIMED);
+            if (known != null && !triggeredByComment) {
+                LOGGER.info("Commit " + cause.getLastCommitId() + " is already being built");
+                return "";
             }
-        }
-
-        if (shouldRun) {
-            String tagFilter = trigger.getTagFilter();
 
-            if (!"".equals(tagFilter)) {
-                shouldRun = filterMatch(tagFilter, mergeRequest.getLabels(), "Labels");
-            }
-        }
+            LOGGER.info("Build is supposed to run");
 
-        if (shouldRun) {
-            if (isWorkInProgress(mergeRequest.getTitle())) {
-                shouldRun = false;
+            if (trigger.getCancelSupersededBuilds()) {
+                cancelSuperseded(cause);
             }
-        }
-
-        if (shouldRun) {
-            LOGGER.info("Build is supposed to run");
 
             QueueTaskFuture<?> build = trigger.startJob(cause);
             if (build == null) {
                 LOGGER.log(Level.SEVERE, "Job failed to start.");
+                statuses.remove(project.getId(), cause.getLastCommitId(), statusName, GitlabCommitStatusCache.CLAIMED);
             }
             return withCustomParameters(new StringBuilder("Build triggered."), customParameters).toString();
         } else {
@@ -97,8 +100,131 @@ public class GitlabBuilds {
         }
     }
 
+    /**
+     * Cancels the queued and aborts the running builds of the merge request that build an older commit,
+     * their commit statuses are marked canceled.
+     *
+     * @param cause the cause of the build about to be scheduled
+     */
+    private void cancelSuperseded(GitlabCause cause) {
+        AbstractProject<?, ?> job = trigger.getBuilder().getProject();
+        Jenkins instance = Jenkins.getInstance();
+        if (job == null || instance == null) {
+            return;
+        }
+
+        int canceled = 0;
+        long saved = 0;
+        Queue queue = instance.getQueue();
+        // a waiting build is updated to the new commit instead when queued builds are coalesced
+        List<Queue.Item> items = trigger.getCoalesceQueuedBuilds() ? Collections.<Queue.Item>emptyList() : queue.getItems(job);
+        for (Queue.Item item : items) {
+            GitlabCause queued = getSupersededCause(item.getCauses(), cause);
+            if (queued != null && queue.cancel(item)) {
+                canceled++;
+                saved += Math.max(0, job.getEstimatedDuration());
+                markCanceled(queued, getRootUrl() + item.getUrl());
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        for (AbstractBuild<?, ?> build = job.getLastBuild(); build != null; build = build.getPreviousBuildInProgress()) {
+            if (!build.isBuilding()) {
+                continue;
+            }
+            GitlabCause running = getSupersededCause(build.getCauses(), cause);
+            Executor executor = build.getExecutor();
+            if (running != null && executor != null) {
+                executor.interrupt(Result.ABORTED, new Superseded(cause.getLastCommitId()));
+                canceled++;
+                saved += Math.max(0, build.getEstimatedDuration() - (now - build.getStartTimeInMillis()));
+                markCanceled(running, getRootUrl() + build.getUrl());
+            }
+        }
+
+        if (canceled > 0) {
+            supersededBuilds.addAndGet(canceled);
+            savedMillis.addAndGet(saved);
+            LOGGER.info("Canceled " + canceled + " builds of merge request " + cause.getMergeRequestIid()
+                    + " superseded by " + cause.getLastCommitId() + ", saving about "
+                    + TimeUnit.MILLISECONDS.toMinutes(saved) + " minutes");
+        }
+    }
+
+    private static GitlabCause getSupersededCause(List<Cause> causes, GitlabCause newer) {
+        for (Cause cause : causes) {
+            if (cause instanceof GitlabCause) {
+                GitlabCause older = (GitlabCause) cause;
+                if (newer.getMergeRequestId().equals(older.getMergeRequestId())
+                        && !StringUtils.equals(newer.getLastCommitId(), older.getLastCommitId())) {
+                    return older;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void markCanceled(GitlabCause cause, String url) {
+        repository.changeCommitStatus(cause.getMergeRequestId(), cause.getLastCommitId(), CANCELED, url);
+    }
+
+    private boolean isSuperseded(AbstractBuild build) {
+        Object interrupted = build.getAction(InterruptedBuildAction.class);
+        if (interrupted instanceof InterruptedBuildAction) {
+            for (CauseOfInterruption cause : ((InterruptedBuildAction) interrupted).getCauses()) {
+                if (cause instanceof Superseded) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return how many queued or running builds were canceled because a newer commit was pushed
+     */
+    public static long getSupersededCount() {
+        return supersededBuilds.get();
+    }
+
+    /**
+     * @return the estimated executor time the canceled builds would still have taken
+     */
+    public static long getSavedMinutes() {
+        return TimeUnit.MILLISECONDS.toMinutes(savedMillis.get());
+    }
+
     public boolean isWorkInProgress(String title) {
-        return null != title && (title.startsWith("[WIP]") || title.startsWith("WIP:"));
+        return GitlabMergeRequestFilter.isWorkInProgress(title);
+    }
+
+    /**
+     * Applies the filters of the trigger that cannot be overridden by the trigger comment, before anything
+     * about the merge request is asked from GitLab.
+     *
+     * @param mergeRequest GitlabMergeRequest
+     * @param targetBranch the target branch of the merge request
+     * @return true if the merge request will not be built
+     */
+    public boolean isFiltered(GitlabMergeRequest mergeRequest, String targetBranch) {
+        boolean mayBeForced = StringUtils.isNotEmpty(trigger.getTriggerComment());
+        return getFilter().rejects(mergeRequest, targetBranch, mayBeForced);
+    }
+
+    /**
+     * @return the filter compiled from the current configuration of the trigger
+     */
+    private GitlabMergeRequestFilter getFilter() {
+        GitlabMergeRequestFilter current = filter;
+        String targetBranchRegex = trigger.getTargetBranchRegex();
+        String assigneeFilter = trigger.getAssigneeFilter();
+        String tagFilter = trigger.getTagFilter();
+
+        if (current == null || !current.isCompiledFrom(targetBranchRegex, assigneeFilter, tagFilter)) {
+            current = new GitlabMergeRequestFilter(targetBranchRegex, assigneeFilter, tagFilter);
+            filter = current;
+        }
+        return current;
     }
 
     /**
@@ -110,17 +236,16 @@ public class GitlabBuilds {
      * Otherwise false.
      */
     public boolean isAllowedByTargetBranchRegex(String branchName) {
-        String regex = trigger.getTargetBranchRegex();
-        // Allow when no pattern has been specified. (default behavior)
-        if (StringUtils.isEmpty(regex)) {
-            return true;
-        }
-        Pattern pattern = Pattern.compile(regex);
-        return pattern.matcher(branchName).matches();
+        return getFilter().isAllowedTargetBranch(branchName);
     }
 
     /**
-     * synchronized so that there can't be a race condition here.
+     * Statuses this plugin has published or seen before are answered from the commit status cache,
+     * GitLab is only asked on a cache miss. Two evaluations of the same commit cannot both build it, as
+     * the commit is claimed in the cache right before the build is scheduled.
+     *
+     * Only statuses published under the commit status name of this job are taken into account, unless
+     * no name has been configured.
      *
      * @param project GitlabProject
      * @param commitHash String
@@ -128,17 +253,27 @@ public class GitlabBuilds {
      * @return
      * @throws IOException
      */
-    private synchronized boolean hasCommitStatus(GitlabProject project, String commitHash, GitlabAPI api) throws IOException {
-        try {
+    private boolean hasCommitStatus(GitlabProject project, String commitHash, GitlabAPI api) throws IOException {
+        GitlabCommitStatusCache cache = trigger.getBuilder().getGitlab().getCommitStatusCache();
+        String statusContext = trigger.getCommitStatusContext();
+        String known = cache.get(project.getId(), commitHash, statusContext);
+        if (known != null) {
+            LOGGER.fine("Known status of " + commitHash + " -> " + known);
+            return true;
+        }
+
+        try (Gitlab.Permit permit = trigger.getBuilder().getGitlab().acquire()) {
             List<GitlabCommitStatus> statuses = api.getCommitStatuses(project, commitHash);
+            String statusName = trigger.getCommitStatusName();
 
             for (GitlabCommitStatus status : statuses) {
                 LOGGER.fine("Status of " + commitHash + " -> " + status.getStatus());
+                if (StringUtils.isBlank(statusName) || statusName.trim().equals(status.getName())) {
+                    cache.put(project.getId(), commitHash, statusContext, StringUtils.defaultIfEmpty(status.getStatus(), GitlabCommitStatusCache.CLAIMED));
+                    return true;
+                }
             }
 
-            // Return true if there are some statuses
-            return !statuses.isEmpty();
-
         } catch (FileNotFoundException ex) {
             // Can ignore this one because it just means that there is no status for a commit
         }
@@ -147,68 +282,6 @@ public class GitlabBuilds {
         return false;
     }
 
-    private GitlabNote getLastNote(GitlabMergeRequest gitlabMergeRequest, GitlabAPI api) throws IOException {
-        List<GitlabNote> notes = getNotes(gitlabMergeRequest, api);
-
-        GitlabNote lastNote = null;
-
-        if (!notes.isEmpty()) {
-            lastNote = notes.get(notes.size() - 1);
-            LOGGER.info("Last note found: " + lastNote.getBody());
-        }
-        return lastNote;
-    }
-
-    private List<GitlabNote> getNotes(GitlabMergeRequest gitlabMergeRequest, GitlabAPI api) throws IOException {
-        List<GitlabNote> notes = api.getAllNotes(gitlabMergeRequest);
-
-        Collections.sort(notes, new Comparator<GitlabNote>() {
-            public int compare(GitlabNote o1, GitlabNote o2) {
-                return o1.getCreatedAt().compareTo(o2.getCreatedAt());
-            }
-        });
-        return notes;
-    }
-
-    private boolean filterMatch(String filter, String target, String type) {
-        boolean shouldRun = true;
-        if ("".equals(filter)) {
-            shouldRun = true;
-        } else {
-            if (target == null)
-                return false;
-
-            if (target.equals(filter)) {
-                shouldRun = true;
-            } else {
-                shouldRun = false;
-                LOGGER.info(type + ": " + target + " does not match " + filter);
-            }
-        }
-        return shouldRun;
-    }
-
-    private boolean filterMatch(String filter, String target[], String type) {
-        boolean shouldRun = false;
-        if ("".equals(filter)) {
-            shouldRun = true;
-        } else {
-            if (target == null)
-                return false;
-
-            for (String test : target) {
-                if (test.equals(filter)) {
-                    shouldRun = true;
-                }
-            }
-
-            if (!shouldRun) {
-                LOGGER.info(type + ": " + Arrays.toString(target) + " does not contain " + filter);
-            }
-        }
-        return shouldRun;
-    }
-
     private StringBuilder withCustomParameters(StringBuilder sb, Map<String, String> customParameters) {
         if (customParameters.isEmpty()) {
             return sb;
@@ -289,6 +362,12 @@ public class GitlabBuilds {
             return;
         }
 
+        if (isSuperseded(build)) {
+            // the commit status has been marked canceled already, a newer build reports on the merge request
+            LOGGER.info("Build of " + cause.getLastCommitId() + " was superseded, not reporting its result");
+            return;
+        }
+
         boolean stable = false;
         StringBuilder stringBuilder = new StringBuilder();
         Result result = getResult(build);
@@ -348,4 +427,26 @@ public class GitlabBuilds {
     private String getOnStartedMessage(GitlabCause cause) {
         return cause.getShortDescription();
     }
+
+    /**
+     * Aborts a build because a newer commit of its merge request is about to be built.
+     */
+    public static class Superseded extends CauseOfInterruption {
+        private static final long serialVersionUID = 1L;
+
+        private final String commitId;
+
+        public Superseded(String commitId) {
+            this.commitId = commitId;
+        }
+
+        public String getCommitId() {
+            return commitId;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "Superseded by commit " + commitId;
+        }
+    }
 }
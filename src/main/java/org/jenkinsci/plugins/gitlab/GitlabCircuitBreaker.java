@@ -0,0 +1,118 @@
+package org.jenkinsci.plugins.gitlab;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the failure rate of the requests sent to GitLab and stops sending requests while GitLab is down.
+ *
+ * Once at least {@link #MIN_CALLS} requests completed within a window and {@link #FAILURE_RATE} of them
+ * failed, the breaker opens. After {@link #OPEN_MILLIS} a single probe is allowed, the breaker closes if
+ * it succeeds and stays open for another period otherwise.
+ */
+public class GitlabCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    static final long WINDOW_MILLIS = 60000;
+    static final int MIN_CALLS = 10;
+    static final double FAILURE_RATE = 0.5;
+    static final long OPEN_MILLIS = 30000;
+    static final long PROBE_RETRY_MILLIS = 1000;
+
+    private State state = State.CLOSED;
+    private long windowStart = System.currentTimeMillis();
+    private int calls;
+    private int failures;
+    private long openedAt;
+
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public synchronized void recordCall() {
+        roll();
+        calls++;
+    }
+
+    public synchronized void recordFailure() {
+        roll();
+        failures++;
+        if (state == State.CLOSED && calls >= MIN_CALLS && failures >= calls * FAILURE_RATE) {
+            open();
+        }
+    }
+
+    /**
+     * @return true when a probe is due, the caller has to report its outcome
+     */
+    public synchronized boolean startProbe() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= OPEN_MILLIS) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void probeSucceeded() {
+        state = State.CLOSED;
+        windowStart = System.currentTimeMillis();
+        calls = 0;
+        failures = 0;
+    }
+
+    public synchronized void probeFailed() {
+        open();
+    }
+
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return how long to wait before GitLab may be asked again
+     */
+    public synchronized long getRetryDelayMillis() {
+        if (state == State.OPEN) {
+            return Math.max(PROBE_RETRY_MILLIS, openedAt + OPEN_MILLIS - System.currentTimeMillis());
+        }
+        return PROBE_RETRY_MILLIS;
+    }
+
+    void rejected() {
+        rejected.incrementAndGet();
+    }
+
+    /**
+     * @return how many times the breaker opened
+     */
+    public long getOpenedCount() {
+        return opened.get();
+    }
+
+    /**
+     * @return how many requests were not sent because the breaker was open
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        opened.incrementAndGet();
+    }
+
+    private void roll() {
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= WINDOW_MILLIS) {
+            windowStart = now;
+            calls = 0;
+            failures = 0;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.jenkinsci.plugins.gitlab;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The commit statuses this plugin knows about, by project, commit and status name.
+ *
+ * Statuses published through {@link Gitlab#changeCommitStatus} are written through, statuses found on
+ * GitLab are added on lookup. The entries are spread over independently locked stripes, each keeping
+ * its most recently used commits.
+ */
+public class GitlabCommitStatusCache {
+
+    /**
+     * Marks a commit an evaluation has decided to build before GitLab knows any status for it.
+     */
+    public static final String CLAIMED = "claimed";
+
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public GitlabCommitStatusCache(int maxSize) {
+        int stripeSize = Math.max(1, maxSize / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(stripeSize);
+        }
+    }
+
+    /**
+     * @return the known status, null if nothing is known about the commit
+     */
+    public String get(Integer projectId, String commitHash, String name) {
+        String key = key(projectId, commitHash, name);
+        Stripe stripe = stripe(key);
+        String status;
+        synchronized (stripe) {
+            status = stripe.get(key);
+        }
+        if (status == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return status;
+    }
+
+    public void put(Integer projectId, String commitHash, String name, String status) {
+        String key = key(projectId, commitHash, name);
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.put(key, status);
+        }
+    }
+
+    /**
+     * Stores the status unless a status is already known for the commit.
+     *
+     * @return the status known before, null if the given status has been stored
+     */
+    public String putIfAbsent(Integer projectId, String commitHash, String name, String status) {
+        String key = key(projectId, commitHash, name);
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            String known = stripe.get(key);
+            if (known == null) {
+                stripe.put(key, status);
+            }
+            return known;
+        }
+    }
+
+    /**
+     * Forgets the status if it is still the given one.
+     */
+    public void remove(Integer projectId, String commitHash, String name, String status) {
+        String key = key(projectId, commitHash, name);
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            if (status.equals(stripe.get(key))) {
+                stripe.remove(key);
+            }
+        }
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private Stripe stripe(String key) {
+        return stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    private static String key(Integer projectId, String commitHash, String name) {
+        return projectId + "/" + commitHash + "/" + name;
+    }
+
+    private static class Stripe extends LinkedHashMap<String, String> {
+        private final int maxSize;
+
+        Stripe(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
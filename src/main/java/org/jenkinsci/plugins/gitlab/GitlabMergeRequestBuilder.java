@@ -2,13 +2,11 @@ package org.jenkinsci.plugins.gitlab;
 
 import hudson.model.AbstractProject;
 
-import java.util.Map;
-
 public class GitlabMergeRequestBuilder {
 
     private AbstractProject<?, ?> project;
     private GitlabBuildTrigger trigger;
-    private Map<Integer, GitlabMergeRequestWrapper> mergeRequests;
+    private GitlabMergeRequestMap mergeRequests;
     private GitlabBuilds builds;
     private GitlabRepository repository;
 
@@ -42,12 +40,16 @@ public class GitlabMergeRequestBuilder {
         return this;
     }
 
-    public GitlabMergeRequestBuilder setMergeRequests(Map<Integer, GitlabMergeRequestWrapper> mergeRequests) {
+    public AbstractProject<?, ?> getProject() {
+        return project;
+    }
+
+    public GitlabMergeRequestBuilder setMergeRequests(GitlabMergeRequestMap mergeRequests) {
         this.mergeRequests = mergeRequests;
         return this;
     }
 
-    public Map<Integer, GitlabMergeRequestWrapper> getMergeRequests() {
+    public GitlabMergeRequestMap getMergeRequests() {
         return mergeRequests;
     }
 
@@ -62,6 +64,10 @@ public class GitlabMergeRequestBuilder {
         return this;
     }
 
+    public GitlabRepository getRepository() {
+        return repository;
+    }
+
     public GitlabBuilds getBuilds() {
         return builds;
     }
@@ -0,0 +1,168 @@
+package org.jenkinsci.plugins.gitlab;
+
+import org.apache.commons.lang.StringUtils;
+import org.gitlab.api.models.GitlabMergeRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * The merge request filters of a trigger, compiled once into a chain of checks.
+ *
+ * The checks only look at the merge request itself, so a merge request that is filtered out costs no
+ * request to GitLab. Assignee and label filters accept a comma separated list, a merge request passes if
+ * it is assigned to one of the users and has one of the labels.
+ */
+public class GitlabMergeRequestFilter {
+
+    private static final Logger LOGGER = Logger.getLogger(GitlabMergeRequestFilter.class.getName());
+
+    public enum Check {
+        WORK_IN_PROGRESS, ASSIGNEE, LABEL, TARGET_BRANCH
+    }
+
+    private static final AtomicLongArray rejections = new AtomicLongArray(Check.values().length);
+
+    private final String targetBranchRegex;
+    private final String assigneeFilter;
+    private final String tagFilter;
+    private final List<Condition> conditions = new ArrayList<Condition>();
+
+    /**
+     * @param targetBranchRegex the target branch has to match, empty matches every branch
+     * @param assigneeFilter comma separated user names, empty matches every merge request
+     * @param tagFilter comma separated labels, empty matches every merge request
+     */
+    public GitlabMergeRequestFilter(String targetBranchRegex, String assigneeFilter, String tagFilter) {
+        this.targetBranchRegex = targetBranchRegex;
+        this.assigneeFilter = assigneeFilter;
+        this.tagFilter = tagFilter;
+
+        // cheapest first, the target branch last as the trigger comment may override it
+        conditions.add(new Condition(Check.WORK_IN_PROGRESS) {
+            @Override
+            boolean accepts(GitlabMergeRequest mergeRequest, String targetBranch) {
+                return !isWorkInProgress(mergeRequest.getTitle());
+            }
+        });
+
+        final Set<String> assignees = split(assigneeFilter);
+        if (!assignees.isEmpty()) {
+            conditions.add(new Condition(Check.ASSIGNEE) {
+                @Override
+                boolean accepts(GitlabMergeRequest mergeRequest, String targetBranch) {
+                    return mergeRequest.getAssignee() != null && assignees.contains(mergeRequest.getAssignee().getUsername());
+                }
+            });
+        }
+
+        final Set<String> labels = split(tagFilter);
+        if (!labels.isEmpty()) {
+            conditions.add(new Condition(Check.LABEL) {
+                @Override
+                boolean accepts(GitlabMergeRequest mergeRequest, String targetBranch) {
+                    if (mergeRequest.getLabels() != null) {
+                        for (String label : mergeRequest.getLabels()) {
+                            if (labels.contains(label)) {
+                                return true;
+                            }
+                        }
+                    }
+                    return false;
+                }
+            });
+        }
+
+        if (StringUtils.isNotEmpty(targetBranchRegex)) {
+            final Pattern pattern = Pattern.compile(targetBranchRegex);
+            conditions.add(new Condition(Check.TARGET_BRANCH) {
+                @Override
+                boolean accepts(GitlabMergeRequest mergeRequest, String targetBranch) {
+                    return targetBranch != null && pattern.matcher(targetBranch).matches();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return true if the filter has been compiled from this configuration
+     */
+    public boolean isCompiledFrom(String targetBranchRegex, String assigneeFilter, String tagFilter) {
+        return StringUtils.equals(this.targetBranchRegex, targetBranchRegex)
+                && StringUtils.equals(this.assigneeFilter, assigneeFilter)
+                && StringUtils.equals(this.tagFilter, tagFilter);
+    }
+
+    /**
+     * @param mergeRequest GitlabMergeRequest
+     * @param targetBranch the target branch of the merge request
+     * @param forced the build is forced by the trigger comment, which overrides the target branch regex
+     * @return true if the merge request must not be built
+     */
+    public boolean rejects(GitlabMergeRequest mergeRequest, String targetBranch, boolean forced) {
+        for (Condition condition : conditions) {
+            if (forced && condition.check == Check.TARGET_BRANCH) {
+                continue;
+            }
+            if (!condition.accepts(mergeRequest, targetBranch)) {
+                rejections.incrementAndGet(condition.check.ordinal());
+                LOGGER.fine("Merge request " + mergeRequest.getIid() + " rejected by the " + condition.check + " filter");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the branch matches the target branch regex or no regex is configured
+     */
+    public boolean isAllowedTargetBranch(String targetBranch) {
+        for (Condition condition : conditions) {
+            if (condition.check == Check.TARGET_BRANCH) {
+                return condition.accepts(null, targetBranch);
+            }
+        }
+        return true;
+    }
+
+    public static boolean isWorkInProgress(String title) {
+        return null != title && (title.startsWith("[WIP]") || title.startsWith("WIP:"));
+    }
+
+    /**
+     * @return how many merge requests the check has rejected, over all jobs
+     */
+    public static long getRejectedCount(Check check) {
+        return rejections.get(check.ordinal());
+    }
+
+    private static Set<String> split(String filter) {
+        if (StringUtils.isBlank(filter)) {
+            return Collections.emptySet();
+        }
+
+        Set<String> values = new HashSet<String>();
+        for (String value : filter.split(",")) {
+            if (StringUtils.isNotBlank(value)) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+
+    private abstract static class Condition {
+        private final Check check;
+
+        Condition(Check check) {
+            this.check = check;
+        }
+
+        abstract boolean accepts(GitlabMergeRequest mergeRequest, String targetBranch);
+    }
+}
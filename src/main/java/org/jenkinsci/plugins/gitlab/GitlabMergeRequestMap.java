@@ -0,0 +1,249 @@
+package org.jenkinsci.plugins.gitlab;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The merge requests of one job by id, shared by the polling thread, the parallel checks and the webhook
+ * workers.
+ *
+ * Ids are kept as primitive ints in open addressing tables spread over independently locked stripes.
+ * {@link #computeIfAbsent} creates a missing wrapper without holding any lock, as creating one may ask
+ * GitLab for the source project, and only the first wrapper inserted for an id is kept. Two threads seeing
+ * the same new merge request therefore still end up with the same wrapper.
+ */
+public class GitlabMergeRequestMap {
+
+    private static final int STRIPES = 16;
+
+    public interface Factory {
+        GitlabMergeRequestWrapper create();
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public GitlabMergeRequestMap() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @param mergeRequests the merge requests by id as persisted, may be null
+     */
+    public GitlabMergeRequestMap(Map<Integer, GitlabMergeRequestWrapper> mergeRequests) {
+        this();
+        if (mergeRequests != null) {
+            for (Map.Entry<Integer, GitlabMergeRequestWrapper> entry : mergeRequests.entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the wrapper, null if the merge request is unknown
+     */
+    public GitlabMergeRequestWrapper get(int id) {
+        Stripe stripe = stripe(id);
+        synchronized (stripe) {
+            return stripe.get(id);
+        }
+    }
+
+    public void put(int id, GitlabMergeRequestWrapper wrapper) {
+        Stripe stripe = stripe(id);
+        synchronized (stripe) {
+            stripe.put(id, wrapper);
+        }
+    }
+
+    /**
+     * Returns the wrapper of the merge request, creating it if it is unknown. The wrapper is created outside
+     * the lock of the stripe, if another thread inserted one meanwhile the created wrapper is discarded.
+     *
+     * @param id the id of the merge request
+     * @param factory creates the wrapper, may be called by several threads for the same missing id
+     * @return the known or the inserted wrapper, null if the factory returned null
+     */
+    public GitlabMergeRequestWrapper computeIfAbsent(int id, Factory factory) {
+        Stripe stripe = stripe(id);
+        synchronized (stripe) {
+            GitlabMergeRequestWrapper wrapper = stripe.get(id);
+            if (wrapper != null) {
+                return wrapper;
+            }
+        }
+
+        GitlabMergeRequestWrapper created = factory.create();
+        if (created == null) {
+            return null;
+        }
+
+        synchronized (stripe) {
+            GitlabMergeRequestWrapper wrapper = stripe.get(id);
+            if (wrapper != null) {
+                return wrapper;
+            }
+            stripe.put(id, created);
+            return created;
+        }
+    }
+
+    /**
+     * @return true if the merge request was known
+     */
+    public boolean remove(int id) {
+        Stripe stripe = stripe(id);
+        synchronized (stripe) {
+            return stripe.remove(id);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return a snapshot of the known ids
+     */
+    public List<Integer> ids() {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (int i = 0; i < stripe.keys.length; i++) {
+                    if (stripe.values[i] != null) {
+                        ids.add(stripe.keys[i]);
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return a snapshot of the wrappers
+     */
+    public List<GitlabMergeRequestWrapper> values() {
+        List<GitlabMergeRequestWrapper> values = new ArrayList<GitlabMergeRequestWrapper>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (GitlabMergeRequestWrapper value : stripe.values) {
+                    if (value != null) {
+                        values.add(value);
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return a snapshot in the form the merge requests are persisted in
+     */
+    public Map<Integer, GitlabMergeRequestWrapper> toMap() {
+        Map<Integer, GitlabMergeRequestWrapper> map = new HashMap<Integer, GitlabMergeRequestWrapper>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (int i = 0; i < stripe.keys.length; i++) {
+                    if (stripe.values[i] != null) {
+                        map.put(stripe.keys[i], stripe.values[i]);
+                    }
+                }
+            }
+        }
+        return map;
+    }
+
+    private Stripe stripe(int id) {
+        return stripes[(mix(id) >>> 16) & (STRIPES - 1)];
+    }
+
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Linear probing table, a null value marks a free slot.
+     */
+    private static class Stripe {
+        private int[] keys = new int[8];
+        private GitlabMergeRequestWrapper[] values = new GitlabMergeRequestWrapper[8];
+        private int size;
+
+        GitlabMergeRequestWrapper get(int id) {
+            int mask = keys.length - 1;
+            for (int i = mix(id) & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == id) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        void put(int id, GitlabMergeRequestWrapper wrapper) {
+            int mask = keys.length - 1;
+            int i = mix(id) & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == id) {
+                    values[i] = wrapper;
+                    return;
+                }
+            }
+            keys[i] = id;
+            values[i] = wrapper;
+            if (++size * 4 > keys.length * 3) {
+                resize(keys.length * 2);
+            }
+        }
+
+        boolean remove(int id) {
+            int mask = keys.length - 1;
+            int i = mix(id) & mask;
+            while (values[i] != null && keys[i] != id) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == null) {
+                return false;
+            }
+            values[i] = null;
+            size--;
+
+            // move the following entries of the cluster back so lookups do not stop at the free slot
+            for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                int home = mix(keys[j]) & mask;
+                boolean reachable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+                if (reachable) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    values[j] = null;
+                    i = j;
+                }
+            }
+            return true;
+        }
+
+        private void resize(int capacity) {
+            int[] oldKeys = keys;
+            GitlabMergeRequestWrapper[] oldValues = values;
+            keys = new int[capacity];
+            values = new GitlabMergeRequestWrapper[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+    }
+}
@@ -3,22 +3,36 @@ package org.jenkinsci.plugins.gitlab;
 import java.util.HashMap;
 
 public class GitlabMergeRequestStatus {
+    private String latestCommit;
+
+    /**
+     * Older versions kept the latest commit keyed by the merge request id, moved by {@link #readResolve()}.
+     */
+    @Deprecated
     private HashMap<String, String> mergeRequestStatus;
 
     protected GitlabMergeRequestStatus() {
-    	mergeRequestStatus = new HashMap<String, String>();
     }
 
-    public String getLatestCommitOfMergeRequest(String _requestId) {
-        if (mergeRequestStatus.containsKey(_requestId)) {
-            return mergeRequestStatus.get(_requestId);
-        }
-        return null;
+    /**
+     * @return the latest known commit of the merge request the status belongs to
+     */
+    public String getLatestCommit() {
+        return latestCommit;
     }
 
-    public void setLatestCommitOfMergeRequest(String _requestId,
-            String latestCommit) {
-        mergeRequestStatus.put(_requestId, latestCommit);
+    public void setLatestCommit(String latestCommit) {
+        this.latestCommit = latestCommit;
+    }
+
+    private Object readResolve() {
+        if (mergeRequestStatus != null) {
+            for (String commit : mergeRequestStatus.values()) {
+                latestCommit = commit;
+            }
+            mergeRequestStatus = null;
+        }
+        return this;
     }
 
 }
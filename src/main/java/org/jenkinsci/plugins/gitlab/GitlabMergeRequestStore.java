@@ -0,0 +1,229 @@
+package org.jenkinsci.plugins.gitlab;
+
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.init.Terminator;
+import hudson.model.AbstractProject;
+import hudson.util.AtomicFileWriter;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the merge request state of every job in a file of its own in the job directory.
+ *
+ * Changes only mark a job dirty, a background save writes the dirty jobs a few seconds later. A job is
+ * only written if its state actually changed since it was last written.
+ */
+public class GitlabMergeRequestStore {
+
+    private static final Logger LOGGER = Logger.getLogger(GitlabMergeRequestStore.class.getName());
+    private static final GitlabMergeRequestStore INSTANCE = new GitlabMergeRequestStore();
+
+    static final String FILE_NAME = "gitlab-merge-requests.xml";
+    static final long SAVE_DELAY_MILLIS = 5000;
+
+    private final Map<File, Entry> entries = new HashMap<File, Entry>();
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong saveNanos = new AtomicLong();
+
+    public static GitlabMergeRequestStore get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Loads the merge requests of a job, taking them over from the global configuration of older versions
+     * if the job has no file of its own yet.
+     *
+     * @param project the job
+     * @return the merge requests, changes have to be announced with {@link #markDirty}
+     */
+    @SuppressWarnings("unchecked")
+    public GitlabMergeRequestMap load(AbstractProject<?, ?> project) {
+        synchronized (entries) {
+            Entry entry = entries.get(project.getRootDir());
+            if (entry != null) {
+                return entry.mergeRequests;
+            }
+
+            XmlFile file = new XmlFile(Jenkins.XSTREAM2, new File(project.getRootDir(), FILE_NAME));
+            Map<Integer, GitlabMergeRequestWrapper> mergeRequests = null;
+            boolean migrated = false;
+            if (file.exists()) {
+                try {
+                    mergeRequests = (Map<Integer, GitlabMergeRequestWrapper>) file.read();
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Failed to load merge requests of " + project.getFullName(), e);
+                }
+            } else {
+                mergeRequests = GitlabBuildTrigger.getDesc().getLegacyMergeRequests(project.getFullName());
+                migrated = mergeRequests != null;
+            }
+
+            entry = new Entry(file, new GitlabMergeRequestMap(mergeRequests));
+            entries.put(project.getRootDir(), entry);
+            if (migrated) {
+                // the global configuration keeps its copy until the file of the job has been written
+                if (save(entry)) {
+                    GitlabBuildTrigger.getDesc().removeLegacyMergeRequests(project.getFullName());
+                } else {
+                    scheduleSave();
+                }
+            }
+            return entry.mergeRequests;
+        }
+    }
+
+    /**
+     * Schedules the merge requests of the job to be saved.
+     *
+     * @param project the job
+     */
+    public void markDirty(AbstractProject<?, ?> project) {
+        if (project == null) {
+            return;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(project.getRootDir());
+            if (entry == null) {
+                return;
+            }
+            entry.dirty = true;
+        }
+        scheduleSave();
+    }
+
+    private void scheduleSave() {
+        if (saveScheduled.compareAndSet(false, true)) {
+            Timer.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    saveScheduled.set(false);
+                    flush();
+                }
+            }, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes all dirty jobs now.
+     */
+    public void flush() {
+        List<Entry> dirty = new ArrayList<Entry>();
+        synchronized (entries) {
+            for (Map.Entry<File, Entry> entry : new ArrayList<Map.Entry<File, Entry>>(entries.entrySet())) {
+                if (!entry.getKey().isDirectory()) {
+                    // the job has been deleted or renamed, its new location loads the file again
+                    entries.remove(entry.getKey());
+                } else if (entry.getValue().dirty) {
+                    entry.getValue().dirty = false;
+                    dirty.add(entry.getValue());
+                }
+            }
+        }
+
+        for (Entry entry : dirty) {
+            long started = System.nanoTime();
+            save(entry);
+            saveNanos.addAndGet(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * @return false if the file could not be written, the entry is dirty again then
+     */
+    private boolean save(Entry entry) {
+        synchronized (entry) {
+            String xml;
+            try {
+                xml = Jenkins.XSTREAM2.toXML(entry.mergeRequests.toMap());
+            } catch (RuntimeException e) {
+                // a wrapper changed while it was serialized, try again with the next save
+                entry.dirty = true;
+                scheduleSave();
+                LOGGER.log(Level.WARNING, "Failed to serialize merge requests of " + entry.file, e);
+                return false;
+            }
+            String digest = Util.getDigestOf(xml);
+            if (digest.equals(entry.writtenDigest)) {
+                unchanged.incrementAndGet();
+                return true;
+            }
+
+            try {
+                AtomicFileWriter writer = new AtomicFileWriter(entry.file.getFile());
+                try {
+                    writer.write("<?xml version='1.1' encoding='UTF-8'?>\n");
+                    writer.write(xml);
+                    writer.commit();
+                } finally {
+                    writer.abort();
+                }
+                entry.writtenDigest = digest;
+                saves.incrementAndGet();
+                bytesWritten.addAndGet(entry.file.getFile().length());
+                return true;
+            } catch (IOException e) {
+                entry.dirty = true;
+                scheduleSave();
+                LOGGER.log(Level.SEVERE, "Failed to save merge requests to " + entry.file, e);
+                return false;
+            }
+        }
+    }
+
+    @Terminator
+    public static void flushOnShutdown() {
+        get().flush();
+    }
+
+    public long getSaveCount() {
+        return saves.get();
+    }
+
+    /**
+     * @return how many dirty jobs were not written because their state had not changed
+     */
+    public long getUnchangedCount() {
+        return unchanged.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return the average time in milliseconds it took to save a job
+     */
+    public double getAverageSaveMillis() {
+        long count = saves.get() + unchanged.get();
+        return count == 0 ? 0 : saveNanos.get() / (count * 1000000.0);
+    }
+
+    private static class Entry {
+        private final XmlFile file;
+        private final GitlabMergeRequestMap mergeRequests;
+        private volatile boolean dirty;
+        private String writtenDigest;
+
+        Entry(XmlFile file, GitlabMergeRequestMap mergeRequests) {
+            this.file = file;
+            this.mergeRequests = mergeRequests;
+        }
+    }
+}
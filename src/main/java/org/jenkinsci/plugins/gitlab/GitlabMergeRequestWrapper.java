@@ -6,25 +6,49 @@ import org.gitlab.api.models.*;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * The state kept for one merge request of a job between checks.
+ *
+ * Only what is needed to recognise changes is persisted: ids, the source project path and the branches.
+ * Title and description are taken from GitLab on every check, the source project is resolved through the
+ * project cache.
+ */
 public class GitlabMergeRequestWrapper {
 
     private static final Logger LOGGER = Logger.getLogger(GitlabMergeRequestWrapper.class.getName());
+    /**
+     * Version of the persisted form, 0 stored the whole source project, the title and the description.
+     */
+    static final int VERSION = 1;
+    private static final ConcurrentMap<String, Pattern> COMMAND_PATTERNS = new ConcurrentHashMap<String, Pattern>();
+    private static final AtomicLong skippedChecks = new AtomicLong();
+    private static final AtomicLong fullChecks = new AtomicLong();
+    private int version = VERSION;
     private final Integer id;
     private Integer iid;
     private final String author;
-    private String title;
-    private String description;
-    private GitlabProject sourceProject;
+    private Integer sourceProjectId;
+    private String sourceName;
     private String sourceBranch;
     private String targetBranch;
 
     private GitlabMergeRequestStatus mergeRequestStatus;
+    private GitlabNoteIndex noteIndex;
+    private String fingerprint;
+    transient private int unchangedChecks;
 
+    @Deprecated private GitlabProject sourceProject;
+    @Deprecated private String title;
+    @Deprecated private String description;
+
+    transient private GitlabProject source;
     transient private GitlabProject project;
     transient private GitlabMergeRequestBuilder builder;
 
@@ -32,20 +56,20 @@ public class GitlabMergeRequestWrapper {
     GitlabMergeRequestWrapper(GitlabMergeRequest mergeRequest, GitlabMergeRequestBuilder builder, GitlabProject project) {
         this.id = mergeRequest.getId();
         this.iid = mergeRequest.getIid();
-        this.author = mergeRequest.getAuthor().getUsername();
-        this.title = mergeRequest.getTitle();
-        this.description = mergeRequest.getDescription();
-        this.sourceBranch = mergeRequest.getSourceBranch();
+        this.author = mergeRequest.getAuthor() != null ? mergeRequest.getAuthor().getUsername() : null;
+        this.sourceProjectId = mergeRequest.getSourceProjectId();
+        this.sourceBranch = intern(mergeRequest.getSourceBranch());
+        this.targetBranch = intern(mergeRequest.getTargetBranch());
+        this.project = project;
+        this.builder = builder;
 
         try {
-            this.sourceProject = getSourceProject(mergeRequest, builder.getGitlab().get());
+            getSourceProject(mergeRequest);
         } catch (IOException ex) {
-        	LOGGER.throwing("GitlabMergeRequestWrapper", "constructor", ex);
+            LOGGER.throwing("GitlabMergeRequestWrapper", "constructor", ex);
         }
-        this.targetBranch = mergeRequest.getTargetBranch();
-        this.project = project;
-        this.builder = builder;
         this.mergeRequestStatus = new GitlabMergeRequestStatus();
+        this.noteIndex = new GitlabNoteIndex();
     }
 
     public void init(GitlabMergeRequestBuilder builder, GitlabProject project) {
@@ -53,106 +77,202 @@ public class GitlabMergeRequestWrapper {
         this.builder = builder;
     }
 
-    public void setLatestCommitOfMergeRequest(String _requestId,
-                                         String latestCommit) {
-        mergeRequestStatus.setLatestCommitOfMergeRequest(_requestId, latestCommit);
+    public void setLatestCommit(String latestCommit) {
+        if (!StringUtils.equals(latestCommit, mergeRequestStatus.getLatestCommit())) {
+            mergeRequestStatus.setLatestCommit(latestCommit);
+            markDirty();
+        }
     }
 
-    public void check(GitlabMergeRequest gitlabMergeRequest) {
+    public boolean check(GitlabMergeRequest gitlabMergeRequest) {
+        return check(gitlabMergeRequest, null);
+    }
+
+    /**
+     * @param gitlabMergeRequest GitlabMergeRequest
+     * @param lastCommitId the head commit of the merge request if already known, e.g. from a webhook
+     * @return false if GitLab could not be asked and the merge request has to be checked again
+     */
+    public synchronized boolean check(GitlabMergeRequest gitlabMergeRequest, String lastCommitId) {
 
         if (mergeRequestStatus == null) {
             mergeRequestStatus = new GitlabMergeRequestStatus();
         }
 
+        if (noteIndex == null) {
+            noteIndex = new GitlabNoteIndex();
+        }
+
         if (iid == null) {
             iid = gitlabMergeRequest.getIid();
         }
 
         if (targetBranch == null || targetBranch.trim().isEmpty()) {
-            targetBranch = gitlabMergeRequest.getTargetBranch();
+            targetBranch = intern(gitlabMergeRequest.getTargetBranch());
         }
 
         if (sourceBranch == null || sourceBranch.trim().isEmpty()) {
-            sourceBranch = gitlabMergeRequest.getSourceBranch();
+            sourceBranch = intern(gitlabMergeRequest.getSourceBranch());
         }
 
-        if (title == null || title.trim().isEmpty()) {
-            title = gitlabMergeRequest.getTitle();
-            
-            if (title == null) { title = ""; }
+        GitlabBuilds builds = builder.getBuilds();
+        if (builds != null && builds.isFiltered(gitlabMergeRequest, targetBranch)) {
+            // will not be built, do not ask GitLab for anything
+            return true;
         }
 
-        if (description == null || description.trim().isEmpty()) {
-            description = gitlabMergeRequest.getDescription();
-            
-            if (description == null) { description = ""; }
+        String currentFingerprint = getFingerprint(gitlabMergeRequest, lastCommitId);
+        if (isUnchanged(currentFingerprint)) {
+            skippedChecks.incrementAndGet();
+            LOGGER.fine("Merge request " + iid + " did not change since the last check, skipping");
+            return true;
         }
+        fullChecks.incrementAndGet();
+        unchangedChecks = 0;
 
-        if (sourceProject == null || sourceProject.getId() == null || sourceProject.getName() == null) {
+        if (source == null || source.getId() == null) {
             try {
-                GitlabAPI api = builder.getGitlab().get();
-                sourceProject = getSourceProject(gitlabMergeRequest, api);
+                getSourceProject(gitlabMergeRequest);
             } catch (IOException e) {
+                builder.getGitlab().report(e);
                 LOGGER.log(Level.SEVERE, "Failed to get source project for Merge request " + gitlabMergeRequest.getIid() + " :\n" + e.getMessage());
-                return;
+                return false;
             }
         }
         
         try {
             GitlabAPI api = builder.getGitlab().get();
-            GitlabCommit latestCommit = getLatestCommit(gitlabMergeRequest, api);
+            String latestCommitId = lastCommitId;
+
+            if (latestCommitId == null) {
+                // the head of the source branch, GitLab keeps it on the merge request
+                latestCommitId = gitlabMergeRequest.getSha();
+            }
 
-            if (latestCommit == null) { // the source branch has been removed
-                return;
+            if (latestCommitId == null) {
+                GitlabCommit latestCommit = getLatestCommit(gitlabMergeRequest, api);
+
+                if (latestCommit == null) { // the source branch has been removed
+                    return true;
+                }
+                latestCommitId = latestCommit.getId();
             }
             
             Map<String, String> customParameters = getSpecifiedCustomParameters(gitlabMergeRequest, api);
-            build(customParameters, latestCommit.getId(), gitlabMergeRequest);
+            build(customParameters, latestCommitId, gitlabMergeRequest);
+            fingerprint = currentFingerprint;
+            // the note index and the fingerprint have changed
+            markDirty();
+            return true;
         } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Failed to fetch commits for Merge Request " + gitlabMergeRequest.getIid());
+            builder.getGitlab().report(e);
+            LOGGER.log(Level.SEVERE, "Failed to check merge request " + gitlabMergeRequest.getIid(), e);
+            return false;
         }
     }
 
-    private List<GitlabNote> getNotes(GitlabMergeRequest gitlabMergeRequest, GitlabAPI api) throws IOException {
-        List<GitlabNote> notes = api.getAllNotes(gitlabMergeRequest);
+    /**
+     * GitLab touches updated_at whenever a merge request, its notes or its labels change, together with
+     * the head commit this identifies a state that has already been evaluated.
+     *
+     * @return the fingerprint, null if the merge request does not carry enough information
+     */
+    private static String getFingerprint(GitlabMergeRequest gitlabMergeRequest, String lastCommitId) {
+        if (gitlabMergeRequest.getUpdatedAt() == null) {
+            return null;
+        }
+        return gitlabMergeRequest.getUpdatedAt().getTime() + ":" + gitlabMergeRequest.getSha() + ":" + lastCommitId
+                + ":" + gitlabMergeRequest.getTargetBranch();
+    }
 
-        Collections.sort(notes, new Comparator<GitlabNote>() {
-            public int compare(GitlabNote o1, GitlabNote o2) {
-                return o1.getCreatedAt().compareTo(o2.getCreatedAt());
+    private void markDirty() {
+        GitlabMergeRequestStore.get().markDirty(builder.getProject());
+    }
+
+    private boolean isUnchanged(String currentFingerprint) {
+        int fullCheckInterval = GitlabBuildTrigger.getDesc().getFullCheckInterval();
+        if (currentFingerprint == null || !currentFingerprint.equals(fingerprint) || fullCheckInterval <= 0) {
+            return false;
+        }
+        return ++unchangedChecks < fullCheckInterval;
+    }
+
+    /**
+     * @return how many checks were skipped because the merge request did not change
+     */
+    public static long getSkippedCheckCount() {
+        return skippedChecks.get();
+    }
+
+    /**
+     * @return how many checks talked to GitLab
+     */
+    public static long getFullCheckCount() {
+        return fullChecks.get();
+    }
+
+    /**
+     * Fetches the notes added since the last check, newest first, and stops at the first note that is
+     * already known.
+     *
+     * @return the new notes, oldest first
+     */
+    private List<GitlabNote> getNewNotes(GitlabAPI api) throws IOException {
+        String tailUrl = GitlabProject.URL + "/" + project.getId() + GitlabMergeRequest.URL + "/" + iid
+                + GitlabNote.URL + "?sort=desc&order_by=created_at";
+        List<GitlabNote> notes = new ArrayList<>();
+
+        try (Gitlab.Permit permit = builder.getGitlab().acquire()) {
+            Iterator<GitlabNote[]> pages = api.retrieve().asIterator(tailUrl, GitlabNote[].class);
+            boolean known = false;
+            while (!known && pages.hasNext()) {
+                for (GitlabNote note : pages.next()) {
+                    if (!noteIndex.isNew(note)) {
+                        known = true;
+                        break;
+                    }
+                    notes.add(note);
+                }
+            }
+        } catch (RuntimeException e) {
+            // the page iterator wraps connection errors
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
-        });
+            throw e;
+        }
+
+        Collections.reverse(notes);
         return notes;
     }
 
     private Map<String, String> getSpecifiedCustomParameters(GitlabMergeRequest gitlabMergeRequest, GitlabAPI api) throws IOException {
-        String botUsername = GitlabBuildTrigger.getDesc().getBotUsername();
-        // Mention the botUserName in the text using @[botUserName] to indicate a command to the bot. If that is followed by a semicolon and one of the two commands:
-        //  USE-PARAMETER for specifying a parameter using the format Key=Value
-        // or REMOVE-PARAMETER for removing a parameter with the given Key
-        Pattern searchPattern = Pattern.compile("@" + botUsername + "\\s*:\\s*(USE|REMOVE)-PARAMETER\\s*:\\s*(\\w+)\\s*(?:=\\s*(.*))?", Pattern.CASE_INSENSITIVE);
-
-        Map<String, String> customParams = new HashMap<>();
-        for (GitlabNote note : getNotes(gitlabMergeRequest, api)) {
-            Matcher m = searchPattern.matcher(note.getBody());
-            // the command to the @botUserName can be given anywhere in the text
-            if (m.find()) {
-                if (m.group(1).equalsIgnoreCase("USE")) {
-                    customParams.put(m.group(2), m.group(3));
-                } else {
-                    customParams.remove(m.group(2));
-                }
-            }
+        noteIndex.add(getNewNotes(api), getCommandPattern());
+        return noteIndex.getCustomParameters();
+    }
+
+    private static Pattern getCommandPattern() {
+        String botUsername = String.valueOf(GitlabBuildTrigger.getDesc().getBotUsername());
+        Pattern pattern = COMMAND_PATTERNS.get(botUsername);
+        if (pattern == null) {
+            // Mention the botUserName in the text using @[botUserName] to indicate a command to the bot. If that is followed by a semicolon and one of the two commands:
+            //  USE-PARAMETER for specifying a parameter using the format Key=Value
+            // or REMOVE-PARAMETER for removing a parameter with the given Key
+            pattern = Pattern.compile("@" + botUsername + "\\s*:\\s*(USE|REMOVE)-PARAMETER\\s*:\\s*(\\w+)\\s*(?:=\\s*(.*))?", Pattern.CASE_INSENSITIVE);
+            COMMAND_PATTERNS.put(botUsername, pattern);
         }
-        return customParams;
+        return pattern;
     }
 
+    /**
+     * Fallback for GitLab versions that do not report the head sha of a merge request. The commits are
+     * listed in git log order, so the first one is the head of the source branch even after a rebase.
+     */
     private GitlabCommit getLatestCommit(GitlabMergeRequest gitlabMergeRequest, GitlabAPI api) throws IOException {
-        List<GitlabCommit> commits = api.getCommits(gitlabMergeRequest);
-        Collections.sort(commits, new Comparator<GitlabCommit>() {
-            public int compare(GitlabCommit o1, GitlabCommit o2) {
-                return o2.getCreatedAt().compareTo(o1.getCreatedAt());
-            }
-        });
+        List<GitlabCommit> commits;
+        try (Gitlab.Permit permit = builder.getGitlab().acquire()) {
+            commits = api.getCommits(gitlabMergeRequest);
+        }
 
         if (commits.isEmpty()) {
             LOGGER.log(Level.SEVERE, "Merge Request without commits.");
@@ -162,8 +282,45 @@ public class GitlabMergeRequestWrapper {
         return commits.get(0);
     }
 
-    private GitlabProject getSourceProject(GitlabMergeRequest gitlabMergeRequest, GitlabAPI api) throws IOException {
-        return api.getProject(gitlabMergeRequest.getSourceProjectId());
+    private GitlabProject getSourceProject(GitlabMergeRequest gitlabMergeRequest) throws IOException {
+        Integer sourceId = sourceProjectId != null ? sourceProjectId : gitlabMergeRequest.getSourceProjectId();
+        if (project != null && project.getId() != null && project.getId().equals(sourceId)) {
+            // not a merge request from a fork, no need to ask GitLab for the source project
+            source = project;
+        } else {
+            source = builder.getGitlab().getProject(sourceId);
+        }
+
+        if (source != null) {
+            sourceProjectId = source.getId();
+            sourceName = intern(source.getPathWithNamespace());
+        }
+        return source;
+    }
+
+    private static String intern(String value) {
+        return value == null ? null : value.intern();
+    }
+
+    /**
+     * Moves the state of older versions to the compact form and shares the branch and project names.
+     */
+    private Object readResolve() {
+        if (version < 1) {
+            if (sourceProject != null) {
+                sourceProjectId = sourceProject.getId();
+                sourceName = sourceProject.getPathWithNamespace();
+            }
+            sourceProject = null;
+            title = null;
+            description = null;
+            version = VERSION;
+        }
+
+        sourceName = intern(sourceName);
+        sourceBranch = intern(sourceBranch);
+        targetBranch = intern(targetBranch);
+        return this;
     }
 
     public Integer getId() {
@@ -178,23 +335,19 @@ public class GitlabMergeRequestWrapper {
         return author;
     }
 
-    public String getTitle() {
-        return title;
-    }
-
-    public String getDescription() {
-        return description;
+    public Integer getSourceProjectId() {
+        return sourceProjectId;
     }
 
     public String getSourceName() {
-        return sourceProject.getPathWithNamespace();
+        return sourceName;
     }
 
     public String getSourceRepository() {
         if (builder.getTrigger().getUseHttpUrl()) {
-            return sourceProject.getHttpUrl();
+            return source.getHttpUrl();
         } else {
-            return sourceProject.getSshUrl();
+            return source.getSshUrl();
         }
     }
 
@@ -207,50 +360,83 @@ public class GitlabMergeRequestWrapper {
     }
     
 	public GitlabNote createNote(String message, boolean shouldClose, boolean shouldMerge) {
-        GitlabMergeRequest mergeRequest = new GitlabMergeRequest();
-        mergeRequest.setId(id);
-        mergeRequest.setIid(iid);
-        mergeRequest.setProjectId(project.getId());
-
         try {
-            if (shouldClose || shouldMerge) {
-                String tailUrl = "";
-                if (shouldClose) {
-                    tailUrl = GitlabProject.URL + "/" + project.getId() + "/merge_request/" + iid + "?state_event=close";
-                }
-                if (shouldMerge) {
-                    tailUrl = GitlabProject.URL + "/" + project.getId() + "/merge_request/" + iid + "/merge";
-                }
-                builder.getGitlab().get().retrieve().method("PUT").to(tailUrl, Void.class);
-            }
+            closeOrMerge(shouldClose, shouldMerge);
         } catch (IOException e) {
+            builder.getGitlab().report(e);
             LOGGER.log(Level.SEVERE, "Failed to automatically merge/close the merge request " + iid, e);
         }
 
         try {
-            return builder.getGitlab().get().createNote(mergeRequest, message);
+            return addNote(message);
         } catch (IOException e) {
+            builder.getGitlab().report(e);
             LOGGER.log(Level.SEVERE, "Failed to create note for merge request " + iid, e);
             return null;
         }
 
     }
 
+    /**
+     * @param shouldClose close the merge request
+     * @param shouldMerge accept the merge request, takes precedence over closing it
+     * @throws IOException
+     */
+    public void closeOrMerge(boolean shouldClose, boolean shouldMerge) throws IOException {
+        if (!shouldClose && !shouldMerge) {
+            return;
+        }
+
+        String tailUrl = "";
+        if (shouldClose) {
+            tailUrl = GitlabProject.URL + "/" + project.getId() + "/merge_request/" + iid + "?state_event=close";
+        }
+        if (shouldMerge) {
+            tailUrl = GitlabProject.URL + "/" + project.getId() + "/merge_request/" + iid + "/merge";
+        }
+        try (Gitlab.Permit permit = builder.getGitlab().acquire()) {
+            builder.getGitlab().get().retrieve().method("PUT").to(tailUrl, Void.class);
+        }
+    }
+
+    public GitlabNote addNote(String message) throws IOException {
+        GitlabMergeRequest mergeRequest = new GitlabMergeRequest();
+        mergeRequest.setId(id);
+        mergeRequest.setIid(iid);
+        mergeRequest.setProjectId(project.getId());
+
+        try (Gitlab.Permit permit = builder.getGitlab().acquire()) {
+            return builder.getGitlab().get().createNote(mergeRequest, message);
+        }
+    }
+
     public GitlabCommitStatus changeCommitStatus(String commitHash, String commitStatus, String targetUrl) {
 
         try {
-            GitlabAPI api = builder.getGitlab().get();
-            GitlabMergeRequest mergeRequest = api.getMergeRequest(project, iid);
-
-            return builder.getGitlab().changeCommitStatus(project.getId(), mergeRequest.getSourceBranch(), commitHash, commitStatus, targetUrl);
+            return publishCommitStatus(commitHash, commitStatus, targetUrl);
         } catch (IOException e) {
+            builder.getGitlab().report(e);
             LOGGER.log(Level.SEVERE, "Failed to change status for merge request commit " + commitHash, e);
         }
 
         return null;
     }
 
-    private void build(Map<String, String> customParameters, String commitHash, GitlabMergeRequest mergeRequest) {
+    public GitlabCommitStatus publishCommitStatus(String commitHash, String commitStatus, String targetUrl) throws IOException {
+        String branch = sourceBranch;
+        if (branch == null) {
+            GitlabMergeRequest mergeRequest;
+            try (Gitlab.Permit permit = builder.getGitlab().acquire()) {
+                mergeRequest = builder.getGitlab().get().getMergeRequest(project, iid);
+            }
+            branch = mergeRequest.getSourceBranch();
+        }
+
+        return builder.getGitlab().changeCommitStatus(project.getId(), branch, commitHash, commitStatus, targetUrl,
+                builder.getTrigger().getCommitStatusContext());
+    }
+
+    private void build(Map<String, String> customParameters, String commitHash, GitlabMergeRequest mergeRequest) throws IOException {
         GitlabCause cause = new GitlabCause(
         		this.getId(),
         		this.getIid(),
@@ -259,23 +445,18 @@ public class GitlabMergeRequestWrapper {
         		this.getSourceBranch(),
         		this.getTargetBranch(),
                 customParameters,
-                this.getTitle(),
-                this.getDescription(),
-                this.sourceProject.getId(),
+                StringUtils.defaultString(mergeRequest.getTitle()),
+                StringUtils.defaultString(mergeRequest.getDescription()),
+                this.source.getId(),
                 project.getId(),
                 commitHash);
         
-		try {
-			String message = builder.getBuilds().build(cause, customParameters, project, mergeRequest);
-			
-			if (builder.isEnableBuildTriggeredMessage() && StringUtils.isNotBlank(message)) {
-	            createNote(message, false, false);
-	            LOGGER.log(Level.INFO, message);
-	        }
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		String message = builder.getBuilds().build(cause, customParameters, project, mergeRequest, noteIndex);
+
+		if (builder.isEnableBuildTriggeredMessage() && StringUtils.isNotBlank(message)) {
+            createNote(message, false, false);
+            LOGGER.log(Level.INFO, message);
+        }
     }
 
 }
@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.gitlab;
+
+import org.gitlab.api.models.GitlabNote;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What has been learned from the notes of a merge request so far, persisted with the merge request.
+ *
+ * Only notes newer than {@link #getLastNoteId()} have to be fetched and scanned on the next check. The
+ * custom parameters are never changed in place but replaced, so the index can be saved while a check
+ * adds notes to it.
+ */
+public class GitlabNoteIndex {
+    private Integer lastNoteId;
+    private String lastNoteBody;
+    private HashMap<String, String> customParameters;
+
+    protected GitlabNoteIndex() {
+        customParameters = new HashMap<String, String>();
+    }
+
+    public synchronized Integer getLastNoteId() {
+        return lastNoteId;
+    }
+
+    public synchronized String getLastNoteBody() {
+        return lastNoteBody;
+    }
+
+    public synchronized Map<String, String> getCustomParameters() {
+        return new HashMap<String, String>(customParameters);
+    }
+
+    /**
+     * @param note GitlabNote
+     * @return true when the note has not been folded into this index yet
+     */
+    public synchronized boolean isNew(GitlabNote note) {
+        return lastNoteId == null || note.getId() == null || note.getId() > lastNoteId;
+    }
+
+    /**
+     * Folds new notes into the index.
+     *
+     * @param notes the new notes, oldest first
+     * @param commandPattern matches USE-PARAMETER and REMOVE-PARAMETER commands to the bot
+     */
+    public synchronized void add(List<GitlabNote> notes, Pattern commandPattern) {
+        HashMap<String, String> parameters = new HashMap<String, String>(customParameters);
+        for (GitlabNote note : notes) {
+            if (!isNew(note)) {
+                continue;
+            }
+            if (note.getId() != null) {
+                lastNoteId = note.getId();
+            }
+            lastNoteBody = note.getBody();
+
+            if (note.getBody() == null) {
+                continue;
+            }
+            Matcher m = commandPattern.matcher(note.getBody());
+            // the command to the @botUserName can be given anywhere in the text
+            if (m.find()) {
+                if (m.group(1).equalsIgnoreCase("USE")) {
+                    parameters.put(m.group(2), m.group(3));
+                } else {
+                    parameters.remove(m.group(2));
+                }
+            }
+        }
+        customParameters = parameters;
+    }
+}
@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.gitlab;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool evaluating the merge requests of a polled project in parallel.
+ *
+ * The pool is shared by all jobs, the number of threads is the polling concurrency configured on the
+ * descriptor.
+ */
+public class GitlabPollingExecutor {
+
+    private static final GitlabPollingExecutor INSTANCE = new GitlabPollingExecutor();
+
+    private final ThreadPoolExecutor executor;
+
+    GitlabPollingExecutor() {
+        int threads = GitlabBuildTrigger.getDesc().getPollingConcurrency();
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "GitlabPollingExecutor"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static GitlabPollingExecutor get() {
+        return INSTANCE;
+    }
+
+    public Future<?> submit(Runnable task) {
+        return executor.submit(task);
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            threads = 1;
+        }
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+}
@@ -0,0 +1,160 @@
+package org.jenkinsci.plugins.gitlab;
+
+import org.gitlab.api.models.GitlabProject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded cache of project metadata, looked up by id and by path with namespace.
+ *
+ * Entries expire after a fixed time, the least recently used entry is evicted when the cache is full.
+ */
+public class GitlabProjectCache {
+
+    private final long ttlMillis;
+    private final int maxSize;
+
+    private final LinkedHashMap<Integer, Entry> byId = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+    private final Map<String, Integer> idByPath = new HashMap<String, Integer>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public GitlabProjectCache(long ttl, TimeUnit unit, int maxSize) {
+        this.ttlMillis = unit.toMillis(ttl);
+        this.maxSize = maxSize;
+    }
+
+    public GitlabProject get(Integer id) {
+        if (id == null) {
+            return null;
+        }
+        synchronized (this) {
+            return hitOrMiss(lookup(id));
+        }
+    }
+
+    public GitlabProject get(String pathWithNamespace) {
+        if (pathWithNamespace == null) {
+            return null;
+        }
+        synchronized (this) {
+            Integer id = idByPath.get(key(pathWithNamespace));
+            return hitOrMiss(id != null ? lookup(id) : null);
+        }
+    }
+
+    public synchronized void put(GitlabProject project) {
+        if (project == null || project.getId() == null || ttlMillis <= 0 || maxSize <= 0) {
+            return;
+        }
+
+        remove(project.getId());
+        byId.put(project.getId(), new Entry(project, System.currentTimeMillis() + ttlMillis));
+        if (project.getPathWithNamespace() != null) {
+            idByPath.put(key(project.getPathWithNamespace()), project.getId());
+        }
+
+        Iterator<Map.Entry<Integer, Entry>> eldest = byId.entrySet().iterator();
+        while (byId.size() > maxSize && eldest.hasNext()) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            removePath(evicted.project);
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized void invalidate(Integer id) {
+        if (id != null) {
+            remove(id);
+        }
+    }
+
+    public synchronized void invalidate(String pathWithNamespace) {
+        if (pathWithNamespace != null) {
+            Integer id = idByPath.get(key(pathWithNamespace));
+            if (id != null) {
+                remove(id);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        byId.clear();
+        idByPath.clear();
+    }
+
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private GitlabProject lookup(Integer id) {
+        Entry entry = byId.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt < System.currentTimeMillis()) {
+            remove(id);
+            return null;
+        }
+        return entry.project;
+    }
+
+    private GitlabProject hitOrMiss(GitlabProject project) {
+        if (project == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return project;
+    }
+
+    private void remove(Integer id) {
+        Entry entry = byId.remove(id);
+        if (entry != null) {
+            removePath(entry.project);
+        }
+    }
+
+    private void removePath(GitlabProject project) {
+        if (project.getPathWithNamespace() != null) {
+            String path = key(project.getPathWithNamespace());
+            if (project.getId().equals(idByPath.get(path))) {
+                idByPath.remove(path);
+            }
+        }
+    }
+
+    private static String key(String pathWithNamespace) {
+        return pathWithNamespace.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static class Entry {
+        private final GitlabProject project;
+        private final long expiresAt;
+
+        Entry(GitlabProject project, long expiresAt) {
+            this.project = project;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.jenkinsci.plugins.gitlab;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.Timer;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends notes, commit statuses and merge request updates to GitLab in the background.
+ *
+ * Updates with the same key, usually one merge request, are delivered one after another in the order
+ * they were published, so a commit status can never be overtaken by an older one. A failed delivery is
+ * retried with exponential backoff before the next update of its key is sent. While GitLab is down the
+ * updates are held back and delivered once it has recovered.
+ */
+public class GitlabPublisher {
+
+    private static final Logger LOGGER = Logger.getLogger(GitlabPublisher.class.getName());
+    private static final GitlabPublisher INSTANCE = new GitlabPublisher();
+
+    static final int CAPACITY = 1000;
+    static final int WORKER_THREADS = 2;
+    static final int MAX_ATTEMPTS = 5;
+    static final long INITIAL_BACKOFF_MILLIS = 1000;
+
+    public interface Delivery {
+        void deliver() throws IOException;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Deque<Task>> queues = new HashMap<String, Deque<Task>>();
+    private int pending;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    GitlabPublisher() {
+        executor = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "GitlabPublisher"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static GitlabPublisher get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param key updates with the same key are delivered in order
+     * @param description what is delivered, for logging
+     * @param delivery the request to GitLab
+     * @return false when too many updates are pending and this one has been dropped
+     */
+    public boolean publish(final String key, String description, Delivery delivery) {
+        synchronized (queues) {
+            if (pending >= CAPACITY) {
+                rejected.incrementAndGet();
+                LOGGER.warning("Too many pending GitLab updates, dropping " + description);
+                return false;
+            }
+            pending++;
+
+            Deque<Task> queue = queues.get(key);
+            if (queue != null) {
+                // a worker is already delivering this key and will pick the task up
+                queue.add(new Task(description, delivery));
+                return true;
+            }
+            queue = new ArrayDeque<Task>();
+            queue.add(new Task(description, delivery));
+            queues.put(key, queue);
+        }
+        drainLater(key, 0);
+        return true;
+    }
+
+    private void drainLater(final String key, long delayMillis) {
+        final Runnable drain = new Runnable() {
+            @Override
+            public void run() {
+                drain(key);
+            }
+        };
+
+        if (delayMillis <= 0) {
+            executor.execute(drain);
+        } else {
+            Timer.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    executor.execute(drain);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void drain(String key) {
+        Task task;
+        synchronized (queues) {
+            task = queues.get(key).peek();
+        }
+
+        Gitlab gitlab = GitlabBuildTrigger.getDesc().getGitlab();
+        if (gitlab.isCircuitOpen()) {
+            // hold the update until GitLab is back, this does not count as an attempt
+            drainLater(key, gitlab.getCircuitBreaker().getRetryDelayMillis());
+            return;
+        }
+
+        try {
+            task.delivery.deliver();
+            published.incrementAndGet();
+        } catch (Gitlab.CircuitOpenException e) {
+            drainLater(key, gitlab.getCircuitBreaker().getRetryDelayMillis());
+            return;
+        } catch (IOException e) {
+            gitlab.report(e);
+            if (++task.attempts < MAX_ATTEMPTS) {
+                retried.incrementAndGet();
+                long backoff = INITIAL_BACKOFF_MILLIS << (task.attempts - 1);
+                LOGGER.log(Level.WARNING, "Failed to deliver " + task.description + ", retrying in " + backoff + "ms", e);
+                drainLater(key, backoff);
+                return;
+            }
+            failed.incrementAndGet();
+            LOGGER.log(Level.SEVERE, "Failed to deliver " + task.description + " after " + task.attempts + " attempts", e);
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.log(Level.SEVERE, "Failed to deliver " + task.description, e);
+        }
+
+        synchronized (queues) {
+            Deque<Task> queue = queues.get(key);
+            queue.poll();
+            pending--;
+            if (queue.isEmpty()) {
+                queues.remove(key);
+                return;
+            }
+        }
+        drainLater(key, 0);
+    }
+
+    public int getPendingCount() {
+        synchronized (queues) {
+            return pending;
+        }
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    public long getRetriedCount() {
+        return retried.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private static class Task {
+        private final String description;
+        private final Delivery delivery;
+        private int attempts;
+
+        Task(String description, Delivery delivery) {
+            this.description = description;
+            this.delivery = delivery;
+        }
+    }
+}
@@ -1,34 +1,101 @@
 package org.jenkinsci.plugins.gitlab;
 
 import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import jenkins.model.Jenkins;
 import hudson.Extension;
+import hudson.model.AbstractProject;
 import hudson.model.Cause;
 import hudson.model.Queue;
 import hudson.model.queue.QueueListener;
 
+/**
+ * Publishes the pending commit status of queued builds.
+ *
+ * This runs during queue maintenance, so the status is only handed to the {@link GitlabPublisher}. A
+ * queue item has at most one pending status waiting to be sent, and it is dropped if the item has
+ * left the queue by the time it would be sent.
+ */
 @Extension
 public class GitlabQueueListener extends QueueListener {
 	
 	private static final Logger LOGGER = Logger.getLogger(GitlabQueueListener.class.getName());
+	private static final String PENDING = "pending";
+
+	private static final Set<Long> scheduled = ConcurrentHashMap.newKeySet();
+	private static final AtomicLong coalesced = new AtomicLong();
+	private static final AtomicLong dropped = new AtomicLong();
 	
 	public void onEnterWaiting(Queue.WaitingItem wi) {
 		for (Cause c : wi.getCauses()) {
 			if (c instanceof GitlabCause) {
-				Gitlab gitlab = new Gitlab();
-				GitlabCause cause = (GitlabCause) c;
+				final Gitlab gitlab = GitlabBuildTrigger.getDesc().getGitlab();
+				final GitlabCause cause = (GitlabCause) c;
 				Jenkins instance = Jenkins.getInstance();
 				String rootUrl = instance == null ? "/" : instance.getRootUrl();
-				String url = rootUrl + wi.getUrl();
-				try {
-					gitlab.changeCommitStatus(cause.getTargetProjectId(), cause.getSourceBranch(), cause.getLastCommitId(), "pending", url);
-				} catch (IOException e) {
-					LOGGER.info("error trying to set pending status");
+				final String url = rootUrl + wi.getUrl();
+				String context = GitlabBuildTrigger.DEFAULT_COMMIT_STATUS_NAME;
+				if (wi.task instanceof AbstractProject) {
+					GitlabBuildTrigger trigger = GitlabBuildTrigger.getTrigger((AbstractProject) wi.task);
+					if (trigger != null) {
+						context = trigger.getCommitStatusContext();
+					}
+				}
+				final String statusName = context;
+				final long itemId = wi.getId();
+
+				if (PENDING.equals(gitlab.getCommitStatusCache().get(cause.getTargetProjectId(), cause.getLastCommitId(), statusName))
+						|| !scheduled.add(itemId)) {
+					coalesced.incrementAndGet();
+					continue;
 				}
+
+				GitlabPublisher.get().publish(String.valueOf(cause.getMergeRequestId()), "pending status of " + cause.getLastCommitId(),
+						new GitlabPublisher.Delivery() {
+							@Override
+							public void deliver() throws IOException {
+								try {
+									if (!isQueued(itemId)) {
+										dropped.incrementAndGet();
+										LOGGER.fine("Queue item " + itemId + " left the queue, not sending pending status");
+										return;
+									}
+									gitlab.changeCommitStatus(cause.getTargetProjectId(), cause.getSourceBranch(), cause.getLastCommitId(), PENDING, url, statusName);
+								} finally {
+									scheduled.remove(itemId);
+								}
+							}
+						});
 			}
 		}
 	}
 
+	private static boolean isQueued(long itemId) {
+		Jenkins instance = Jenkins.getInstance();
+		if (instance == null) {
+			return true;
+		}
+		// items that left the queue recently are still returned for a while
+		Queue.Item item = instance.getQueue().getItem(itemId);
+		return item != null && !(item instanceof Queue.LeftItem);
+	}
+
+	/**
+	 * @return how many pending statuses were not sent because one was already waiting or known
+	 */
+	public static long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return how many pending statuses were not sent because the item had left the queue
+	 */
+	public static long getDroppedCount() {
+		return dropped.get();
+	}
+
 }
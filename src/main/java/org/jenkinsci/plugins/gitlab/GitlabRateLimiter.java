@@ -0,0 +1,140 @@
+package org.jenkinsci.plugins.gitlab;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting the requests per second sent to one GitLab host.
+ *
+ * Background requests only get a token while no high priority request is waiting. When GitLab answers
+ * with 429 Too Many Requests the bucket is emptied and no token is handed out until the back off has
+ * passed, this also holds back requests when no rate is configured.
+ */
+public class GitlabRateLimiter {
+
+    public enum Priority {
+        HIGH, LOW
+    }
+
+    private final double tokensPerNano;
+    private final double capacity;
+
+    private double tokens;
+    private long refilledAt;
+    private volatile long pausedUntil;
+    private int highWaiting;
+
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong throttleNanos = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    /**
+     * @param requestsPerSecond the sustained rate, 0 or less disables the limit
+     */
+    public GitlabRateLimiter(double requestsPerSecond) {
+        this.tokensPerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(1, requestsPerSecond);
+        this.tokens = capacity;
+        this.refilledAt = System.nanoTime();
+        this.pausedUntil = refilledAt;
+    }
+
+    public boolean isEnabled() {
+        return tokensPerNano > 0;
+    }
+
+    /**
+     * Waits for a token, or only for the back off to pass if the limit is disabled.
+     *
+     * @param priority Priority
+     * @throws InterruptedIOException when interrupted while waiting
+     */
+    public void acquire(Priority priority) throws InterruptedIOException {
+        boolean enabled = isEnabled();
+        if (!enabled && System.nanoTime() - pausedUntil >= 0) {
+            return;
+        }
+
+        long started = System.nanoTime();
+        boolean waited = false;
+        synchronized (this) {
+            if (priority == Priority.HIGH) {
+                highWaiting++;
+            }
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    refill(now);
+                    boolean mayTake = priority == Priority.HIGH || highWaiting == 0;
+                    if (now - pausedUntil >= 0 && (!enabled || tokens >= 1) && mayTake) {
+                        if (enabled) {
+                            tokens -= 1;
+                        }
+                        break;
+                    }
+
+                    waited = true;
+                    long waitNanos = enabled
+                            ? Math.max(pausedUntil - now, (long) ((1 - tokens) / tokensPerNano))
+                            : pausedUntil - now;
+                    wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the GitLab rate limit");
+            } finally {
+                if (priority == Priority.HIGH) {
+                    highWaiting--;
+                    notifyAll();
+                }
+            }
+        }
+
+        if (waited) {
+            throttled.incrementAndGet();
+            throttleNanos.addAndGet(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * GitLab rejected a request because of its rate limit, stop sending requests for a while.
+     *
+     * @param millis how long to back off
+     */
+    public synchronized void backOff(long millis) {
+        rateLimited.incrementAndGet();
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        if (until - pausedUntil > 0) {
+            pausedUntil = until;
+        }
+        tokens = 0;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+
+    /**
+     * @return how many requests had to wait for a token
+     */
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    /**
+     * @return the average time in milliseconds a throttled request waited for its token
+     */
+    public double getAverageThrottleMillis() {
+        long count = throttled.get();
+        return count == 0 ? 0 : throttleNanos.get() / (count * 1000000.0);
+    }
+
+    /**
+     * @return how many times GitLab answered 429 Too Many Requests
+     */
+    public long getRateLimitedCount() {
+        return rateLimited.get();
+    }
+}
@@ -1,28 +1,39 @@
 package org.jenkinsci.plugins.gitlab;
 
-import org.gitlab.api.models.GitlabCommitStatus;
 import org.gitlab.api.models.GitlabMergeRequest;
-import org.gitlab.api.models.GitlabNote;
 import org.gitlab.api.models.GitlabProject;
 
 import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class GitlabRepository {
 
     private static final Logger LOGGER = Logger.getLogger(GitlabRepository.class.getName());
+    private static final String STATE_OPENED = "opened";
     private String projectPath;
 
-    private Map<Integer, GitlabMergeRequestWrapper> mergeRequests;
+    private GitlabMergeRequestMap mergeRequests;
     private GitlabProject project;
     private GitlabMergeRequestBuilder builder;
 
-    public GitlabRepository(String projectPath, GitlabMergeRequestBuilder builder, Map<Integer, GitlabMergeRequestWrapper> mergeRequests) {
+    private Date updatedAfter;
+
+    private volatile long lastCheckMillis;
+    private volatile int lastCheckCount;
+
+    public GitlabRepository(String projectPath, GitlabMergeRequestBuilder builder, GitlabMergeRequestMap mergeRequests) {
         this.projectPath = projectPath;
         this.builder = builder;
         this.mergeRequests = mergeRequests;
@@ -39,6 +50,10 @@ public class GitlabRepository {
     private boolean checkState() {
         if (project == null) {
             project = getProjectForPath(projectPath);
+
+            if (project != null) {
+                GitlabWebhooks.getTriggers().setProjectId(builder.getProject().getFullName(), project.getId());
+            }
         }
 
         if (project == null) {
@@ -49,55 +64,181 @@ public class GitlabRepository {
     }
 
     public void check() {
+        // polling yields to webhooks and status updates when GitLab's rate limit is tight
+        GitlabRateLimiter.Priority previous = Gitlab.setPriority(GitlabRateLimiter.Priority.LOW);
+        try {
+            poll();
+        } finally {
+            Gitlab.setPriority(previous);
+        }
+    }
+
+    private void poll() {
+        if (builder.getGitlab().isCircuitOpen()) {
+            LOGGER.fine("GitLab is unavailable, skipping polling of " + projectPath);
+            return;
+        }
+
         if (!checkState()) {
             return;
         }
 
+        long started = System.nanoTime();
+        Date since = updatedAfter;
+        Date newest = since;
+        boolean incremental = GitlabBuildTrigger.getDesc().isIncrementalPolling() && since != null;
+
         List<GitlabMergeRequest> mergeRequests;
-        try {
-            mergeRequests = builder.getGitlab().get().getOpenMergeRequests(project);
+        try (Gitlab.Permit permit = builder.getGitlab().acquire()) {
+            if (incremental) {
+                mergeRequests = getMergeRequestsUpdatedAfter(since);
+            } else {
+                mergeRequests = builder.getGitlab().get().getOpenMergeRequests(project);
+            }
         } catch (IOException e) {
+            builder.getGitlab().report(e);
             LOGGER.log(Level.SEVERE, "Could not retrieve merge requests.", e);
             return;
         }
 
-        Set<Integer> closedMergedRequests = new HashSet<Integer>(this.mergeRequests.keySet());
+        // an incremental run only sees merge requests that changed, closed ones are reported with their new state
+        Set<Integer> closedMergedRequests = incremental ? new HashSet<Integer>() : new HashSet<Integer>(this.mergeRequests.ids());
+        int concurrency = GitlabBuildTrigger.getDesc().getPollingConcurrency();
+        List<Future<?>> checks = new ArrayList<Future<?>>();
+        List<GitlabMergeRequest> failed = Collections.synchronizedList(new ArrayList<GitlabMergeRequest>());
+        int checked = 0;
 
         for (GitlabMergeRequest mergeRequest : mergeRequests) {
-            check(mergeRequest);
+            if (mergeRequest.getUpdatedAt() != null && (newest == null || mergeRequest.getUpdatedAt().after(newest))) {
+                newest = mergeRequest.getUpdatedAt();
+            }
+            if (incremental && !STATE_OPENED.equals(mergeRequest.getState())) {
+                closedMergedRequests.add(mergeRequest.getId());
+                continue;
+            }
+
+            // wrappers are created on this thread, only the checks themselves run in parallel
+            GitlabMergeRequestWrapper wrapper = getWrapper(mergeRequest);
+            checked++;
+            if (concurrency > 1) {
+                checks.add(GitlabPollingExecutor.get().submit(check(wrapper, mergeRequest, failed)));
+            } else if (!wrapper.check(mergeRequest)) {
+                failed.add(mergeRequest);
+            }
             closedMergedRequests.remove(mergeRequest.getId());
         }
 
+        boolean awaited = awaitChecks(checks);
         removeClosed(closedMergedRequests, this.mergeRequests);
+        if (awaited) {
+            updatedAfter = getWatermark(newest, failed, since);
+        }
+
+        lastCheckMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        lastCheckCount = checked;
+        LOGGER.fine("Checked " + lastCheckCount + " merge requests of " + projectPath + " in " + lastCheckMillis + "ms");
+    }
+
+    /**
+     * Lists the merge requests of any state that changed since the given time. GitLab includes merge
+     * requests updated exactly at that time, so the newest one of the previous run is listed again.
+     */
+    private List<GitlabMergeRequest> getMergeRequestsUpdatedAfter(Date since) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        String tailUrl = GitlabProject.URL + "/" + project.getId() + GitlabMergeRequest.URL
+                + "?state=all&updated_after=" + format.format(since);
+        return builder.getGitlab().get().retrieve().getAll(tailUrl, GitlabMergeRequest[].class);
     }
 
-    private void check(GitlabMergeRequest gitlabMergeRequest) {
-        Integer id = gitlabMergeRequest.getId();
-        GitlabMergeRequestWrapper mergeRequest;
+    private GitlabMergeRequestWrapper getWrapper(final GitlabMergeRequest gitlabMergeRequest) {
+        return mergeRequests.computeIfAbsent(gitlabMergeRequest.getId(), new GitlabMergeRequestMap.Factory() {
+            @Override
+            public GitlabMergeRequestWrapper create() {
+                GitlabMergeRequestStore.get().markDirty(builder.getProject());
+                return new GitlabMergeRequestWrapper(gitlabMergeRequest, builder, project);
+            }
+        });
+    }
 
-        if (mergeRequests.containsKey(id)) {
-            mergeRequest = mergeRequests.get(id);
-        } else {
-            mergeRequest = new GitlabMergeRequestWrapper(gitlabMergeRequest, builder, project);
-            mergeRequests.put(id, mergeRequest);
+    /**
+     * The next incremental run lists every merge request updated at or after the watermark, so it must not
+     * pass a merge request whose check failed.
+     *
+     * @return the newest update seen, or the update of the earliest failed merge request if that is older
+     */
+    private static Date getWatermark(Date newest, List<GitlabMergeRequest> failed, Date previous) {
+        Date watermark = newest;
+        synchronized (failed) {
+            for (GitlabMergeRequest mergeRequest : failed) {
+                if (mergeRequest.getUpdatedAt() == null) {
+                    return previous;
+                }
+                if (watermark == null || mergeRequest.getUpdatedAt().before(watermark)) {
+                    watermark = mergeRequest.getUpdatedAt();
+                }
+            }
         }
+        return watermark;
+    }
 
-        mergeRequest.check(gitlabMergeRequest);
+    private static Runnable check(final GitlabMergeRequestWrapper wrapper, final GitlabMergeRequest mergeRequest,
+                                  final List<GitlabMergeRequest> failed) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                GitlabRateLimiter.Priority previous = Gitlab.setPriority(GitlabRateLimiter.Priority.LOW);
+                boolean completed = false;
+                try {
+                    completed = wrapper.check(mergeRequest);
+                } finally {
+                    if (!completed) {
+                        failed.add(mergeRequest);
+                    }
+                    Gitlab.setPriority(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return false if interrupted, the remaining checks are cancelled then
+     */
+    private boolean awaitChecks(List<Future<?>> checks) {
+        for (Future<?> check : checks) {
+            try {
+                check.get();
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.SEVERE, "Failed to check merge request of " + projectPath, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<?> remaining : checks) {
+                    remaining.cancel(false);
+                }
+                return false;
+            }
+        }
+        return true;
     }
 
-    private void removeClosed(Set<Integer> closedMergeRequests, Map<Integer, GitlabMergeRequestWrapper> mergeRequests) {
+    private void removeClosed(Set<Integer> closedMergeRequests, GitlabMergeRequestMap mergeRequests) {
         if (closedMergeRequests.isEmpty()) {
             return;
         }
 
+        boolean removed = false;
         for (Integer id : closedMergeRequests) {
-            mergeRequests.remove(id);
+            removed |= mergeRequests.remove(id);
+        }
+        if (removed) {
+            GitlabMergeRequestStore.get().markDirty(builder.getProject());
         }
     }
 
     private GitlabProject getProjectForPath(String path) {
         try {
-            return builder.getGitlab().get().getProject(path);
+            return builder.getGitlab().getProject(path);
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Could not retrieve Project with path: " + path
                 + " (" + e.toString() + ")");
@@ -105,6 +246,25 @@ public class GitlabRepository {
         return null;
     }
 
+    public GitlabProject getProject() {
+        return project;
+    }
+
+    /**
+     * @return the wall-clock time of the last polling check in milliseconds
+     */
+    public long getLastCheckMillis() {
+        return lastCheckMillis;
+    }
+
+    /**
+     * @return the number of open merge requests evaluated by the last polling check, closed and merged ones
+     *         listed by an incremental check are not counted
+     */
+    public int getLastCheckCount() {
+        return lastCheckCount;
+    }
+
     public String getProjectUrl() {
         try {
             return builder.getGitlab().get().getUrl(project.getPathWithNamespace()).toString();
@@ -117,21 +277,56 @@ public class GitlabRepository {
         return getProjectUrl() + GitlabMergeRequest.URL + "/" + mergeRequestIid;
     }
 
-    public GitlabNote createNote(Integer mergeRequestId, String message, boolean shouldClose, boolean shouldMerge) {
-        GitlabMergeRequestWrapper gitlabMergeRequestWrapper = mergeRequests.get(mergeRequestId);
-        return gitlabMergeRequestWrapper.createNote(message, shouldClose, shouldMerge);
+    /**
+     * Queues the note, and closing or merging the merge request, for the {@link GitlabPublisher}.
+     */
+    public void createNote(Integer mergeRequestId, final String message, final boolean shouldClose, final boolean shouldMerge) {
+        final GitlabMergeRequestWrapper gitlabMergeRequestWrapper = mergeRequests.get(mergeRequestId);
+        if (gitlabMergeRequestWrapper == null) {
+            LOGGER.warning("Unknown merge request " + mergeRequestId + ", not creating note");
+            return;
+        }
+
+        if (shouldClose || shouldMerge) {
+            GitlabPublisher.get().publish(String.valueOf(mergeRequestId), (shouldMerge ? "merge" : "close") + " of merge request " + mergeRequestId,
+                    new GitlabPublisher.Delivery() {
+                        @Override
+                        public void deliver() throws IOException {
+                            gitlabMergeRequestWrapper.closeOrMerge(shouldClose, shouldMerge);
+                        }
+                    });
+        }
+
+        GitlabPublisher.get().publish(String.valueOf(mergeRequestId), "note on merge request " + mergeRequestId,
+                new GitlabPublisher.Delivery() {
+                    @Override
+                    public void deliver() throws IOException {
+                        gitlabMergeRequestWrapper.addNote(message);
+                    }
+                });
     }
 
-    public GitlabCommitStatus changeCommitStatus(Integer mergeRequestId, String commitHash, String commitStatus, String targetUrl) {
+    /**
+     * Queues the commit status for the {@link GitlabPublisher}.
+     */
+    public void changeCommitStatus(Integer mergeRequestId, final String commitHash, final String commitStatus, final String targetUrl) {
         if (commitHash != null) {
 
-            GitlabMergeRequestWrapper gitlabMergeRequestWrapper = mergeRequests.get(mergeRequestId);
+            final GitlabMergeRequestWrapper gitlabMergeRequestWrapper = mergeRequests.get(mergeRequestId);
+            if (gitlabMergeRequestWrapper == null) {
+                LOGGER.warning("Unknown merge request " + mergeRequestId + ", not sending status " + commitStatus);
+                return;
+            }
 
             LOGGER.info("Sending Status: " + commitStatus);
 
-            return gitlabMergeRequestWrapper.changeCommitStatus(commitHash, commitStatus, targetUrl);
-        } else {
-            return null;
+            GitlabPublisher.get().publish(String.valueOf(mergeRequestId), "status " + commitStatus + " of " + commitHash,
+                    new GitlabPublisher.Delivery() {
+                        @Override
+                        public void deliver() throws IOException {
+                            gitlabMergeRequestWrapper.publishCommitStatus(commitHash, commitStatus, targetUrl);
+                        }
+                    });
         }
     }
 }
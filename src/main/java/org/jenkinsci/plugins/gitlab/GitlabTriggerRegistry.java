@@ -0,0 +1,153 @@
+package org.jenkinsci.plugins.gitlab;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Index of the started triggers by GitLab project path and project id.
+ *
+ * Every job has at most one registration, several jobs may be registered for the same GitLab project.
+ * Lookups are lock free, registrations are rare and synchronized.
+ */
+public class GitlabTriggerRegistry {
+
+    private final ConcurrentMap<String, Registration> byJob = new ConcurrentHashMap<String, Registration>();
+    private final ConcurrentMap<String, Map<String, GitlabBuildTrigger>> byPath = new ConcurrentHashMap<String, Map<String, GitlabBuildTrigger>>();
+    private final ConcurrentMap<Integer, Map<String, GitlabBuildTrigger>> byProjectId = new ConcurrentHashMap<Integer, Map<String, GitlabBuildTrigger>>();
+
+    /**
+     * Registers the trigger of a job, replacing any previous registration of that job.
+     *
+     * @param jobName the full name of the job
+     * @param trigger GitlabBuildTrigger
+     */
+    public synchronized void register(String jobName, GitlabBuildTrigger trigger) {
+        unregister(jobName);
+
+        Registration registration = new Registration(trigger, trigger.getProjectPath());
+        byJob.put(jobName, registration);
+        if (registration.projectPath != null) {
+            index(byPath, registration.projectPath).put(jobName, trigger);
+        }
+    }
+
+    /**
+     * Adds the id of the GitLab project once the trigger has resolved its project path.
+     *
+     * @param jobName the full name of the job
+     * @param projectId the id of the GitLab project
+     */
+    public synchronized void setProjectId(String jobName, Integer projectId) {
+        Registration registration = byJob.get(jobName);
+        if (registration == null || projectId == null || projectId.equals(registration.projectId)) {
+            return;
+        }
+
+        removeFrom(byProjectId, registration.projectId, jobName);
+        registration.projectId = projectId;
+        index(byProjectId, projectId).put(jobName, registration.trigger);
+    }
+
+    /**
+     * Removes the registration of a job if it still belongs to the given trigger.
+     *
+     * @param jobName the full name of the job
+     * @param trigger GitlabBuildTrigger
+     */
+    public synchronized void unregister(String jobName, GitlabBuildTrigger trigger) {
+        Registration registration = byJob.get(jobName);
+        if (registration != null && registration.trigger == trigger) {
+            unregister(jobName);
+        }
+    }
+
+    private void unregister(String jobName) {
+        Registration registration = byJob.remove(jobName);
+        if (registration != null) {
+            removeFrom(byPath, registration.projectPath, jobName);
+            removeFrom(byProjectId, registration.projectId, jobName);
+        }
+    }
+
+    public Collection<GitlabBuildTrigger> findByProjectPath(String projectPath) {
+        return find(byPath, projectPath);
+    }
+
+    public Collection<GitlabBuildTrigger> findByProjectId(Integer projectId) {
+        return find(byProjectId, projectId);
+    }
+
+    /**
+     * Jobs whose trigger has not resolved the project id yet are only known by their path, so both indexes
+     * are asked.
+     *
+     * @return every trigger registered for the project by id or by path, each once
+     */
+    public Collection<GitlabBuildTrigger> findByProject(Integer projectId, String projectPath) {
+        Collection<GitlabBuildTrigger> byId = findByProjectId(projectId);
+        Collection<GitlabBuildTrigger> byPath = findByProjectPath(projectPath);
+        if (byPath.isEmpty()) {
+            return byId;
+        }
+        if (byId.isEmpty()) {
+            return byPath;
+        }
+
+        Set<GitlabBuildTrigger> triggers = new LinkedHashSet<GitlabBuildTrigger>(byId);
+        triggers.addAll(byPath);
+        return Collections.unmodifiableCollection(triggers);
+    }
+
+    public int size() {
+        return byJob.size();
+    }
+
+    private static <K> Collection<GitlabBuildTrigger> find(ConcurrentMap<K, Map<String, GitlabBuildTrigger>> index, K key) {
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        Map<String, GitlabBuildTrigger> triggers = index.get(key);
+        if (triggers == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableCollection(triggers.values());
+    }
+
+    private static <K> Map<String, GitlabBuildTrigger> index(ConcurrentMap<K, Map<String, GitlabBuildTrigger>> index, K key) {
+        Map<String, GitlabBuildTrigger> triggers = index.get(key);
+        if (triggers == null) {
+            triggers = new ConcurrentHashMap<String, GitlabBuildTrigger>();
+            index.put(key, triggers);
+        }
+        return triggers;
+    }
+
+    private static <K> void removeFrom(ConcurrentMap<K, Map<String, GitlabBuildTrigger>> index, K key, String jobName) {
+        if (key == null) {
+            return;
+        }
+        Map<String, GitlabBuildTrigger> triggers = index.get(key);
+        if (triggers != null) {
+            triggers.remove(jobName);
+            if (triggers.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static class Registration {
+        private final GitlabBuildTrigger trigger;
+        private final String projectPath;
+        private Integer projectId;
+
+        Registration(GitlabBuildTrigger trigger, String projectPath) {
+            this.trigger = trigger;
+            this.projectPath = projectPath;
+        }
+    }
+}
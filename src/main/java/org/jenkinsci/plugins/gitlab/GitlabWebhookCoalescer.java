@@ -0,0 +1,145 @@
+package org.jenkinsci.plugins.gitlab;
+
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.gitlab.models.webhook.Commit;
+import org.jenkinsci.plugins.gitlab.models.webhook.MergeRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Folds bursts of webhooks for the same merge request into a single evaluation.
+ *
+ * The first webhook for a merge request opens a window, every further webhook for that merge request
+ * arriving before the window closes only replaces the pending event. Once the window closes the newest
+ * event is evaluated. The webhook opening a window hands its slot of the {@link GitlabWebhookQueue} over
+ * to the window, so pending evaluations count against the capacity of the queue without ever dropping a
+ * webhook that has already been accepted.
+ */
+public class GitlabWebhookCoalescer {
+
+    private static final Logger LOGGER = Logger.getLogger(GitlabWebhookCoalescer.class.getName());
+    private static final GitlabWebhookCoalescer INSTANCE = new GitlabWebhookCoalescer();
+
+    private final Map<Integer, Pending> pending = new HashMap<Integer, Pending>();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final AtomicLong evaluated = new AtomicLong();
+
+    public static GitlabWebhookCoalescer get() {
+        return INSTANCE;
+    }
+
+    public void submit(MergeRequest mergeRequest) {
+        received.incrementAndGet();
+        final Integer id = mergeRequest.getId();
+        long window = GitlabBuildTrigger.getDesc().getWebhookCoalesceWindow();
+
+        boolean opened = false;
+        boolean evaluateNow = window <= 0 || id == null;
+        if (!evaluateNow) {
+            synchronized (pending) {
+                Pending current = pending.get(id);
+                if (current != null) {
+                    current.update(mergeRequest);
+                } else if (GitlabWebhookQueue.get().handOff()) {
+                    pending.put(id, new Pending(mergeRequest));
+                    opened = true;
+                } else {
+                    // not called on a webhook worker, there is no slot to keep the window open with
+                    evaluateNow = true;
+                }
+            }
+        }
+
+        if (evaluateNow) {
+            evaluated.incrementAndGet();
+            GitlabWebhooks.evaluate(mergeRequest);
+            return;
+        }
+
+        if (opened) {
+            Timer.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush(id);
+                }
+            }, window, TimeUnit.MILLISECONDS);
+        } else {
+            collapsed.incrementAndGet();
+            LOGGER.fine("Coalesced webhook for merge request " + id);
+        }
+    }
+
+    private void flush(Integer id) {
+        final Pending flushed;
+        synchronized (pending) {
+            flushed = pending.remove(id);
+        }
+        if (flushed == null) {
+            return;
+        }
+
+        if (flushed.events > 1) {
+            LOGGER.info("Evaluating merge request " + id + " once for " + flushed.events + " webhooks");
+        }
+        evaluated.incrementAndGet();
+        GitlabWebhookQueue.get().execute(new Runnable() {
+            @Override
+            public void run() {
+                GitlabWebhooks.evaluate(flushed.mergeRequest);
+            }
+        });
+    }
+
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    public long getCollapsedCount() {
+        return collapsed.get();
+    }
+
+    public long getEvaluatedCount() {
+        return evaluated.get();
+    }
+
+    private static class Pending {
+        private MergeRequest mergeRequest;
+        private int events = 1;
+
+        Pending(MergeRequest mergeRequest) {
+            this.mergeRequest = mergeRequest;
+        }
+
+        void update(MergeRequest newer) {
+            Commit previousCommit = lastCommit(mergeRequest);
+            mergeRequest = newer;
+            // Note hooks may come without a commit, keep the one we already know.
+            if (lastCommit(newer) == null && previousCommit != null) {
+                if (newer.object_attributes != null) {
+                    newer.object_attributes.last_commit = previousCommit;
+                } else {
+                    newer.last_commit = previousCommit;
+                }
+            }
+            events++;
+        }
+
+        private static Commit lastCommit(MergeRequest mergeRequest) {
+            if (mergeRequest.last_commit != null || mergeRequest.object_attributes == null) {
+                return mergeRequest.last_commit;
+            }
+            return mergeRequest.object_attributes.last_commit;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.jenkinsci.plugins.gitlab;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded in-memory queue for incoming webhooks.
+ *
+ * The HTTP request thread only reads the body and hands it over, all parsing and GitLab API traffic
+ * happens on the worker threads of this queue. A webhook holds its slot until it has been processed, or
+ * until it hands the slot over to follow-up work such as a coalesced evaluation with {@link #handOff()}.
+ */
+public class GitlabWebhookQueue {
+
+    private static final Logger LOGGER = Logger.getLogger(GitlabWebhookQueue.class.getName());
+    private static final GitlabWebhookQueue INSTANCE = new GitlabWebhookQueue();
+
+    public enum Stage {
+        QUEUED, PARSE, EVALUATE
+    }
+
+    private static final ThreadLocal<Boolean> holdsSlot = new ThreadLocal<Boolean>();
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong[] stageCount = new AtomicLong[Stage.values().length];
+    private final AtomicLong[] stageNanos = new AtomicLong[Stage.values().length];
+
+    GitlabWebhookQueue() {
+        int threads = GitlabBuildTrigger.getDesc().getWebhookWorkerThreads();
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "GitlabWebhookQueue"));
+        executor.allowCoreThreadTimeOut(true);
+
+        for (Stage stage : Stage.values()) {
+            stageCount[stage.ordinal()] = new AtomicLong();
+            stageNanos[stage.ordinal()] = new AtomicLong();
+        }
+    }
+
+    public static GitlabWebhookQueue get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param task work to run on a webhook worker
+     * @return false when the queue is full and the webhook has to be rejected
+     */
+    public boolean offer(final Runnable task) {
+        if (!reserve()) {
+            LOGGER.warning("Webhook queue is full (" + depth.get() + " pending), rejecting webhook");
+            return false;
+        }
+
+        accepted.incrementAndGet();
+        final long enqueued = System.nanoTime();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                holdsSlot.set(Boolean.TRUE);
+                try {
+                    record(Stage.QUEUED, System.nanoTime() - enqueued);
+                    runSafely(task);
+                } finally {
+                    boolean kept = holdsSlot.get();
+                    holdsSlot.remove();
+                    if (kept) {
+                        depth.decrementAndGet();
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Passes the slot of the webhook processed by the calling worker on to follow-up work, the slot is
+     * given back once the work passed to {@link #execute} has run instead of when the webhook is done.
+     *
+     * @return false if the calling thread does not process a webhook or has already handed its slot off
+     */
+    public boolean handOff() {
+        if (!Boolean.TRUE.equals(holdsSlot.get())) {
+            return false;
+        }
+        holdsSlot.set(Boolean.FALSE);
+        return true;
+    }
+
+    private boolean reserve() {
+        int capacity = GitlabBuildTrigger.getDesc().getWebhookQueueCapacity();
+        int current;
+        do {
+            current = depth.get();
+            if (current >= capacity) {
+                rejected.incrementAndGet();
+                return false;
+            }
+        } while (!depth.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Runs follow-up work on a slot taken with {@link #handOff()}.
+     *
+     * @param task work to run on a webhook worker
+     */
+    public void execute(final Runnable task) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runSafely(task);
+                } finally {
+                    depth.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Webhook processing failed", e);
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        stageCount[stage.ordinal()].incrementAndGet();
+        stageNanos[stage.ordinal()].addAndGet(nanos);
+    }
+
+    public void setWorkerThreads(int threads) {
+        if (threads < 1) {
+            threads = 1;
+        }
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getStageCount(Stage stage) {
+        return stageCount[stage.ordinal()].get();
+    }
+
+    /**
+     * @param stage Stage
+     * @return the average time spent in the given stage in milliseconds
+     */
+    public double getAverageMillis(Stage stage) {
+        long count = stageCount[stage.ordinal()].get();
+        if (count == 0) {
+            return 0;
+        }
+        return stageNanos[stage.ordinal()].get() / (count * 1000000.0);
+    }
+
+    @Override
+    public String toString() {
+        return "GitlabWebhookQueue{" +
+                "depth=" + getQueueDepth() +
+                ", accepted=" + getAcceptedCount() +
+                ", rejected=" + getRejectedCount() +
+                ", queuedMs=" + getAverageMillis(Stage.QUEUED) +
+                ", parseMs=" + getAverageMillis(Stage.PARSE) +
+                ", evaluateMs=" + getAverageMillis(Stage.EVALUATE) +
+                '}';
+    }
+}
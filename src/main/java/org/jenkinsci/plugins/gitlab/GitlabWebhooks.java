@@ -1,21 +1,26 @@
 package org.jenkinsci.plugins.gitlab;
 
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.JsonParseException;
 import hudson.Extension;
 import hudson.model.UnprotectedRootAction;
 import org.apache.commons.io.IOUtils;
-import org.gitlab.api.GitlabAPI;
+import org.apache.commons.lang.StringUtils;
 import org.gitlab.api.models.GitlabMergeRequest;
 import org.gitlab.api.models.GitlabProject;
+import org.gitlab.api.models.GitlabUser;
 import org.jenkinsci.plugins.gitlab.models.webhook.MergeRequest;
-import org.jenkinsci.plugins.gitlab.models.webhook.Note;
-import org.jenkinsci.plugins.gitlab.models.webhook.OnlyType;
+import org.jenkinsci.plugins.gitlab.models.webhook.WebhookParser;
 import org.kohsuke.stapler.*;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -25,94 +30,222 @@ import java.util.logging.Logger;
 public class GitlabWebhooks implements UnprotectedRootAction {
 
     private static final Logger LOGGER = Logger.getLogger(GitlabWebhooks.class.getName());
-    private static HashMap<String, GitlabBuildTrigger> triggers = new HashMap<String, GitlabBuildTrigger>();
+    private static final GitlabTriggerRegistry triggers = new GitlabTriggerRegistry();
     public static final String URLNAME = "gitlab-webhook";
 
     /**
-     * @param t
+     * @param jobName the full name of the job
+     * @param t the started trigger of the job
      */
-    public static void addTrigger(GitlabBuildTrigger t) {
-        String key = t.getProjectPath();
-        if (triggers.containsKey(key)) {
-            triggers.remove(key);
-        }
-        triggers.put(key, t);
+    public static void addTrigger(String jobName, GitlabBuildTrigger t) {
+        triggers.register(jobName, t);
+    }
+
+    /**
+     * @param jobName the full name of the job
+     * @param t the stopped trigger of the job
+     */
+    public static void removeTrigger(String jobName, GitlabBuildTrigger t) {
+        triggers.unregister(jobName, t);
+    }
+
+    public static GitlabTriggerRegistry getTriggers() {
+        return triggers;
     }
 
     /**
      * @param m
-     * @return
+     * @return every trigger subscribed to the target project of the merge request
      */
-    private static GitlabBuildTrigger findTrigger(MergeRequest m) {
-        for (Map.Entry<String, GitlabBuildTrigger> entry : triggers.entrySet()) {
-            GitlabBuildTrigger t = entry.getValue();
-            try {
-                if (t.getProjectPath().equals(m.getTarget().path_with_namespace)) {
-                    return t;
-                }
-            } catch (NullPointerException npe) {
-                LOGGER.warning(String.format("%s where handle %s", npe.toString(), m.toString()));
+    private static Collection<GitlabBuildTrigger> findTriggers(MergeRequest m) {
+        String path = m.getTarget() != null ? m.getTarget().path_with_namespace : null;
+        return triggers.findByProject(m.getTarget_project_id(), path);
+    }
+
+    public HttpResponse doStart(StaplerRequest request) {
+        final byte[] requestBody;
+        try {
+            requestBody = IOUtils.toByteArray(request.getInputStream());
+        } catch (IOException ex) {
+            // not accepted, so that GitLab delivers the hook again
+            LOGGER.log(Level.SEVERE, "Failed to read webhook body: " + ex.getMessage(), ex);
+            return respond(HttpServletResponse.SC_BAD_REQUEST, "unreadable body");
+        }
+
+        boolean queued = GitlabWebhookQueue.get().offer(new Runnable() {
+            @Override
+            public void run() {
+                handle(requestBody);
             }
+        });
+        if (!queued) {
+            return respond(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "queue full");
         }
-        return null;
+        return respond(HttpServletResponse.SC_ACCEPTED, "accepted");
     }
 
-    public HttpResponse doStart(StaplerRequest request) {
-        HttpResponse response = new HttpResponse() {
+    private static HttpResponse respond(final int status, final String message) {
+        return new HttpResponse() {
             @Override
             public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node) throws IOException, ServletException {
-                rsp.getWriter().println("accepted");
+                rsp.setStatus(status);
+                if (status == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
+                    rsp.setHeader("Retry-After", "10");
+                }
+                rsp.getWriter().println(message);
             }
         };
+    }
+
+    /**
+     * Runs on a {@link GitlabWebhookQueue} worker thread.
+     *
+     * @param requestBody the raw webhook body
+     */
+    static void handle(byte[] requestBody) {
+        MergeRequest mergeRequest = null;
         try {
-            String requestBodyString = IOUtils.toString(request.getInputStream(), "UTF-8");
-            LOGGER.fine(requestBodyString);
-            OnlyType hookObjectKind = OnlyType.fromJson(requestBodyString);
-            MergeRequest mergeRequest = null;
-            switch (hookObjectKind.object_kind) {
-                case "note":
-                    Note mergeRequestNote = Note.fromJson(requestBodyString);
-                    mergeRequest = mergeRequestNote.merge_request;
-                    break;
-                case "merge_request":
-                    mergeRequest = MergeRequest.fromJson(requestBodyString);
-                    break;
-                default: {}
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(new String(requestBody, StandardCharsets.UTF_8));
             }
-            LOGGER.fine(String.format("MergeRequest is %s", mergeRequest));
-            GitlabBuildTrigger trigger  = mergeRequest != null ? findTrigger(mergeRequest) : null;
-            if (trigger != null) {
-                GitlabMergeRequestBuilder currentBuilder = trigger.getBuilder();
-                GitlabAPI api = currentBuilder.getGitlab().get();
-                GitlabProject project = api.getProject(mergeRequest.getTarget_project_id());
-                GitlabMergeRequest gitlabMergeRequest = api.getMergeRequest(project, mergeRequest.getId());
-                GitlabMergeRequestWrapper mergeRequestWrapper;
-                Map<Integer, GitlabMergeRequestWrapper> mergeRequestWrapperMap = currentBuilder.getMergeRequests();
-
-                if (mergeRequestWrapperMap.containsKey(mergeRequest.getId())) {
-                    mergeRequestWrapper = mergeRequestWrapperMap.get(mergeRequest.getId());
-                } else {
-                    mergeRequestWrapper = new GitlabMergeRequestWrapper(gitlabMergeRequest, currentBuilder, project);
-                    mergeRequestWrapperMap.put(mergeRequest.getId(), mergeRequestWrapper);
+            long parseStarted = System.nanoTime();
+            mergeRequest = WebhookParser.parseMergeRequest(new ByteArrayInputStream(requestBody));
+            GitlabWebhookQueue.get().record(GitlabWebhookQueue.Stage.PARSE, System.nanoTime() - parseStarted);
+        } catch (JsonParseException e) {
+            LOGGER.warning(e.toString());
+        } catch (Exception e) {
+            LOGGER.severe(String.format("%s on run doStart", e));
+        }
+        LOGGER.fine(String.format("MergeRequest is %s", mergeRequest));
+
+        if (mergeRequest != null) {
+            GitlabWebhookCoalescer.get().submit(mergeRequest);
+        }
+    }
+
+    /**
+     * Checks the merge request of a (possibly coalesced) webhook.
+     *
+     * @param mergeRequest the merge request from the webhook payload
+     */
+    static void evaluate(MergeRequest mergeRequest) {
+        GitlabWebhookQueue queue = GitlabWebhookQueue.get();
+        long evaluateStarted = System.nanoTime();
+        try {
+            List<GitlabBuildTrigger> subscribed = new ArrayList<GitlabBuildTrigger>();
+            for (GitlabBuildTrigger trigger : findTriggers(mergeRequest)) {
+                if (trigger.getBuilder() != null) {
+                    subscribed.add(trigger);
+                }
+            }
+
+            if (!subscribed.isEmpty()) {
+                // All jobs share one snapshot of the merge request, the API cost does not grow with the number of jobs.
+                // The snapshot is built from the payload, GitLab is only asked for what the payload lacks.
+                Gitlab gitlab = GitlabBuildTrigger.getDesc().getGitlab();
+                GitlabProject project = getProject(subscribed, mergeRequest, gitlab);
+                GitlabMergeRequest gitlabMergeRequest = toGitlabMergeRequest(mergeRequest);
+                if (isMissingFilterData(subscribed, mergeRequest)) {
+                    try (Gitlab.Permit permit = gitlab.acquire()) {
+                        gitlabMergeRequest = gitlab.get().getMergeRequest(project, mergeRequest.getIid());
+                    }
+                }
+                String lastCommitId = mergeRequest.getLast_commit() != null ? mergeRequest.getLast_commit().id : null;
+                LOGGER.info(String.format("Webhook detected! Trying to build %s in %d job(s)", mergeRequest.toString(), subscribed.size()));
+
+                for (GitlabBuildTrigger trigger : subscribed) {
+                    evaluate(trigger, mergeRequest, project, gitlabMergeRequest, lastCommitId);
                 }
-                mergeRequestWrapper.setLatestCommitOfMergeRequest(
-                        mergeRequest.getId().toString(),
-                        mergeRequest.getLast_commit().id);
-                LOGGER.info(String.format("Webhook detected! Trying to build %s", mergeRequest.toString()));
-                mergeRequestWrapper.check(gitlabMergeRequest);
             } else {
                 LOGGER.info(String.format("No suitable trigger found for MergeRequest %s! Skipping webhook", mergeRequest));
             }
-
         } catch (IOException ex) {
+            GitlabBuildTrigger.getDesc().getGitlab().report(ex);
             LOGGER.severe("There was an error");
-            LOGGER.throwing("GitlabWebhooks", "doStart", ex);
-        } catch (JsonSyntaxException e) {
-            LOGGER.warning(e.toString());
+            LOGGER.throwing("GitlabWebhooks", "evaluate", ex);
         } catch (Exception e) {
             LOGGER.severe(String.format("%s on run doStart", e));
         }
-        return response;
+        queue.record(GitlabWebhookQueue.Stage.EVALUATE, System.nanoTime() - evaluateStarted);
+        LOGGER.fine(queue.toString());
+    }
+
+    private static void evaluate(GitlabBuildTrigger trigger, MergeRequest mergeRequest, final GitlabProject project,
+                                 final GitlabMergeRequest gitlabMergeRequest, String lastCommitId) {
+        try {
+            final GitlabMergeRequestBuilder currentBuilder = trigger.getBuilder();
+            GitlabMergeRequestWrapper mergeRequestWrapper = currentBuilder.getMergeRequests().computeIfAbsent(
+                    mergeRequest.getId(), new GitlabMergeRequestMap.Factory() {
+                        @Override
+                        public GitlabMergeRequestWrapper create() {
+                            GitlabMergeRequestStore.get().markDirty(currentBuilder.getProject());
+                            return new GitlabMergeRequestWrapper(gitlabMergeRequest, currentBuilder, project);
+                        }
+                    });
+            if (lastCommitId != null) {
+                mergeRequestWrapper.setLatestCommit(lastCommitId);
+            }
+            mergeRequestWrapper.check(gitlabMergeRequest, lastCommitId);
+        } catch (Exception e) {
+            // one broken job must not keep the other jobs from seeing the webhook
+            LOGGER.severe(String.format("%s on run doStart for project %s", e, trigger.getProjectPath()));
+        }
+    }
+
+    /**
+     * Uses the project the triggers have already resolved and only falls back to the API when none has.
+     */
+    private static GitlabProject getProject(List<GitlabBuildTrigger> triggers, MergeRequest mergeRequest, Gitlab gitlab) throws IOException {
+        for (GitlabBuildTrigger trigger : triggers) {
+            GitlabRepository repository = trigger.getBuilder().getRepository();
+            GitlabProject project = repository != null ? repository.getProject() : null;
+            if (project != null && project.getId() != null && project.getId().equals(mergeRequest.getTarget_project_id())) {
+                return project;
+            }
+        }
+        return gitlab.getProject(mergeRequest.getTarget_project_id());
+    }
+
+    /**
+     * Note hooks carry neither labels nor assignees, these only need to be fetched when a job filters on them.
+     */
+    private static boolean isMissingFilterData(List<GitlabBuildTrigger> triggers, MergeRequest mergeRequest) {
+        for (GitlabBuildTrigger trigger : triggers) {
+            if (mergeRequest.assignees == null && StringUtils.isNotEmpty(trigger.getAssigneeFilter())) {
+                return true;
+            }
+            if (mergeRequest.labels == null && StringUtils.isNotEmpty(trigger.getTagFilter())) {
+                return true;
+            }
+        }
+        return mergeRequest.getSource_branch() == null || mergeRequest.getTarget_branch() == null;
+    }
+
+    static GitlabMergeRequest toGitlabMergeRequest(MergeRequest mergeRequest) {
+        GitlabMergeRequest gitlabMergeRequest = new GitlabMergeRequest();
+        gitlabMergeRequest.setId(mergeRequest.getId());
+        gitlabMergeRequest.setIid(mergeRequest.getIid());
+        gitlabMergeRequest.setProjectId(mergeRequest.getTarget_project_id());
+        gitlabMergeRequest.setSourceProjectId(mergeRequest.getSource_project_id());
+        gitlabMergeRequest.setSourceBranch(mergeRequest.getSource_branch());
+        gitlabMergeRequest.setTargetBranch(mergeRequest.getTarget_branch());
+        gitlabMergeRequest.setTitle(mergeRequest.getTitle());
+        gitlabMergeRequest.setDescription(mergeRequest.getDescription());
+
+        if (mergeRequest.labels != null) {
+            String[] labels = new String[mergeRequest.labels.size()];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = mergeRequest.labels.get(i).title;
+            }
+            gitlabMergeRequest.setLabels(labels);
+        }
+
+        if (mergeRequest.assignees != null && !mergeRequest.assignees.isEmpty()) {
+            GitlabUser assignee = new GitlabUser();
+            assignee.setUsername(mergeRequest.assignees.get(0).username);
+            gitlabMergeRequest.setAssignee(assignee);
+        }
+        return gitlabMergeRequest;
     }
 
     @Override
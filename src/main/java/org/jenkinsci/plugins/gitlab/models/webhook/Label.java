@@ -0,0 +1,13 @@
+package org.jenkinsci.plugins.gitlab.models.webhook;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+@SuppressFBWarnings("UWF_UNWRITTEN_PUBLIC_OR_PROTECTED_FIELD")
+public class Label {
+    public String title;
+
+    @Override
+    public String toString() {
+        return title;
+    }
+}
@@ -1,8 +1,7 @@
 package org.jenkinsci.plugins.gitlab.models.webhook;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
+import java.util.List;
 import jnr.ffi.annotations.In;
 
 /**
@@ -21,6 +20,10 @@ public class MergeRequest {
     public String title;
     public String description;
     public MergeRequestObjectAttributes object_attributes;
+    /** Labels of the merge request, only sent with merge_request hooks, null when unknown. */
+    public List<Label> labels;
+    /** Assignees of the merge request, only sent with merge_request hooks, null when unknown. */
+    public List<User> assignees;
 
 
     @Override
@@ -29,47 +32,61 @@ public class MergeRequest {
     }
 
     public static MergeRequest fromJson(String jsonString) throws JsonSyntaxException {
-        Gson g = new GsonBuilder().setPrettyPrinting().create();
-        return g.fromJson(jsonString, MergeRequest.class);
+        return WebhookParser.GSON.fromJson(jsonString, MergeRequest.class);
     }
 
     public Integer getId() {
-        Integer result = this.id != null ? this.id :this.object_attributes.id;
+        Integer result = this.id != null || this.object_attributes == null ? this.id : this.object_attributes.id;
         return result;
     }
 
     public Integer getIid() {
-        Integer result = this.iid != null ? this.iid : this.object_attributes.iid;
+        Integer result = this.iid != null || this.object_attributes == null ? this.iid : this.object_attributes.iid;
         return result;
     }
 
     public MergeRequestRepository getSource() {
-        MergeRequestRepository result = this.source != null ? this.source : this.object_attributes.source;
+        MergeRequestRepository result = this.source != null || this.object_attributes == null ? this.source : this.object_attributes.source;
         return result;
     }
 
     public MergeRequestRepository getTarget() {
-        MergeRequestRepository result = this.target != null ? this.target : this.object_attributes.target;
+        MergeRequestRepository result = this.target != null || this.object_attributes == null ? this.target : this.object_attributes.target;
         return result;
     }
 
     public String getTitle() {
-        String result = this.title != null ? this.title : this.object_attributes.title;
+        String result = this.title != null || this.object_attributes == null ? this.title : this.object_attributes.title;
         return result;
     }
 
     public String getDescription() {
-        String result = this.description != null ? this.description : this.object_attributes.description;
+        String result = this.description != null || this.object_attributes == null ? this.description : this.object_attributes.description;
         return result;
     }
 
     public Commit getLast_commit() {
-        Commit result = this.last_commit != null ? this.last_commit : this.object_attributes.last_commit;
+        Commit result = this.last_commit != null || this.object_attributes == null ? this.last_commit : this.object_attributes.last_commit;
         return result;
     }
 
     public Integer getTarget_project_id() {
-        Integer result = this.target_project_id != null ? this.target_project_id : this.object_attributes.target_project_id;
+        Integer result = this.target_project_id != null || this.object_attributes == null ? this.target_project_id : this.object_attributes.target_project_id;
+        return result;
+    }
+
+    public String getSource_branch() {
+        String result = this.source_branch != null || this.object_attributes == null ? this.source_branch : this.object_attributes.source_branch;
+        return result;
+    }
+
+    public String getTarget_branch() {
+        String result = this.target_branch != null || this.object_attributes == null ? this.target_branch : this.object_attributes.target_branch;
+        return result;
+    }
+
+    public Integer getSource_project_id() {
+        Integer result = this.source_project_id != null || this.object_attributes == null ? this.source_project_id : this.object_attributes.source_project_id;
         return result;
     }
 }
@@ -1,7 +1,5 @@
 package org.jenkinsci.plugins.gitlab.models.webhook;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 
 /**
@@ -11,8 +9,7 @@ public class OnlyType {
     public String object_kind;
 
     public static OnlyType fromJson(String jsonString) throws JsonSyntaxException {
-        Gson g = new GsonBuilder().setPrettyPrinting().create();
-        return g.fromJson(jsonString, OnlyType.class);
+        return WebhookParser.GSON.fromJson(jsonString, OnlyType.class);
     }
 
 }
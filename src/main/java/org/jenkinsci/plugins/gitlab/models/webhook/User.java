@@ -0,0 +1,14 @@
+package org.jenkinsci.plugins.gitlab.models.webhook;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+@SuppressFBWarnings("UWF_UNWRITTEN_PUBLIC_OR_PROTECTED_FIELD")
+public class User {
+    public String name;
+    public String username;
+
+    @Override
+    public String toString() {
+        return username;
+    }
+}
@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.gitlab.models.webhook;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Single pass parser for webhook payloads.
+ *
+ * Reads the body as a stream and only materializes the merge request part of merge_request and note hooks
+ * together with the labels and assignees of merge_request hooks, everything else is skipped. The Gson instance and its type adapters are thread-safe and shared.
+ */
+public final class WebhookParser {
+
+    static final Gson GSON = new Gson();
+    private static final TypeAdapter<MergeRequest> MERGE_REQUEST = GSON.getAdapter(MergeRequest.class);
+    private static final TypeAdapter<MergeRequestObjectAttributes> OBJECT_ATTRIBUTES = GSON.getAdapter(MergeRequestObjectAttributes.class);
+    private static final TypeAdapter<User> USER = GSON.getAdapter(User.class);
+    private static final TypeAdapter<List<Label>> LABELS = GSON.getAdapter(new TypeToken<List<Label>>() {});
+    private static final TypeAdapter<List<User>> USERS = GSON.getAdapter(new TypeToken<List<User>>() {});
+
+    private WebhookParser() {
+    }
+
+    /**
+     * @param body the webhook payload
+     * @return the merge request of a merge_request or note hook, null for any other hook
+     * @throws IOException when the body can't be read
+     * @throws JsonSyntaxException when the body is not a valid webhook payload
+     */
+    public static MergeRequest parseMergeRequest(InputStream body) throws IOException, JsonSyntaxException {
+        JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        reader.setLenient(true);
+        try {
+            String objectKind = null;
+            MergeRequestObjectAttributes objectAttributes = null;
+            MergeRequest noteMergeRequest = null;
+            List<Label> labels = null;
+            List<User> assignees = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("object_kind".equals(name) && reader.peek() == JsonToken.STRING) {
+                    objectKind = reader.nextString();
+                } else if ("object_attributes".equals(name) && !"note".equals(objectKind)) {
+                    // GitLab sends object_kind first, so the attributes of note hooks are usually skipped right away
+                    objectAttributes = OBJECT_ATTRIBUTES.read(reader);
+                } else if ("merge_request".equals(name)) {
+                    noteMergeRequest = MERGE_REQUEST.read(reader);
+                } else if ("labels".equals(name)) {
+                    labels = LABELS.read(reader);
+                } else if ("assignees".equals(name)) {
+                    assignees = USERS.read(reader);
+                } else if ("assignee".equals(name) && assignees == null) {
+                    // older GitLab versions only send the single assignee
+                    User assignee = USER.read(reader);
+                    assignees = assignee != null ? Collections.singletonList(assignee) : Collections.<User>emptyList();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if ("note".equals(objectKind)) {
+                return noteMergeRequest;
+            }
+            if ("merge_request".equals(objectKind) && objectAttributes != null) {
+                MergeRequest mergeRequest = new MergeRequest();
+                mergeRequest.object_attributes = objectAttributes;
+                mergeRequest.labels = labels != null ? labels : Collections.<Label>emptyList();
+                mergeRequest.assignees = assignees != null ? assignees : Collections.<User>emptyList();
+                return mergeRequest;
+            }
+            return null;
+        } catch (IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        } finally {
+            reader.close();
+        }
+    }
+}
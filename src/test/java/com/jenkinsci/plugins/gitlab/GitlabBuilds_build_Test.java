@@ -7,8 +7,10 @@ import hudson.util.Secret;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import jenkins.model.Jenkins;
 import mockit.*;
@@ -19,6 +21,7 @@ import static mockit.Deencapsulation.invoke;
 import org.gitlab.api.GitlabAPI;
 import org.gitlab.api.models.GitlabCommitStatus;
 import org.gitlab.api.models.GitlabMergeRequest;
+import org.gitlab.api.models.GitlabNote;
 import org.gitlab.api.models.GitlabProject;
 import org.gitlab.api.models.GitlabUser;
 import org.jenkinsci.plugins.gitlab.*;
@@ -65,6 +68,8 @@ public class GitlabBuilds_build_Test {
 
     List<GitlabCommitStatus> statuses = Arrays.asList(new GitlabCommitStatus());
 
+    GitlabNoteIndex noteIndex;
+
     @BeforeClass
     public static void beforeClass() {
         new MockUp<GitlabBuildTrigger.GitlabBuildTriggerDescriptor>() {
@@ -84,6 +89,7 @@ public class GitlabBuilds_build_Test {
     @Before
     public void before() throws Exception {
 
+        noteIndex = Deencapsulation.newInstance(GitlabNoteIndex.class);
         user.setUsername("username");
         mergeRequest.setAssignee(user);
 
@@ -99,7 +105,7 @@ public class GitlabBuilds_build_Test {
     @Test
     public void build() throws IOException {
 
-        subject.build(cause, new HashMap<String, String>(), project, mergeRequest);
+        subject.build(cause, new HashMap<String, String>(), project, mergeRequest, noteIndex);
 
         new Verifications() {{
             trigger.startJob((GitlabCause) any);
@@ -114,7 +120,7 @@ public class GitlabBuilds_build_Test {
             result = "thisisafakepattern";
         }};
 
-        subject.build(cause, new HashMap<String, String>(), project, mergeRequest);
+        subject.build(cause, new HashMap<String, String>(), project, mergeRequest, noteIndex);
 
         new Verifications() {{
             trigger.startJob((GitlabCause) any);
@@ -130,7 +136,46 @@ public class GitlabBuilds_build_Test {
             result = statuses;
         }};
 
-        subject.build(cause, new HashMap<String, String>(), project, mergeRequest);
+        subject.build(cause, new HashMap<String, String>(), project, mergeRequest, noteIndex);
+
+        new Verifications() {{
+            trigger.startJob((GitlabCause) any);
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void builds_triggerCommentIsLastNote() throws IOException {
+
+        new NonStrictExpectations() {{
+            trigger.getTriggerComment();
+            result = "rebuild please";
+            api.getCommitStatuses(project, cause.getLastCommitId());
+            result = statuses;
+        }};
+        GitlabNote note = new GitlabNote();
+        note.setId(1);
+        note.setBody("rebuild please");
+        noteIndex.add(Collections.singletonList(note), Pattern.compile("@bot:.*"));
+
+        subject.build(cause, new HashMap<String, String>(), project, mergeRequest, noteIndex);
+
+        new Verifications() {{
+            trigger.startJob((GitlabCause) any);
+            api.getAllNotes((GitlabMergeRequest) any);
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void doesNotBuild_commitAlreadyClaimed(@Mocked final GitlabCommitStatusCache statusCache) throws IOException {
+
+        new NonStrictExpectations() {{
+            statusCache.putIfAbsent((Integer) any, anyString, anyString, anyString);
+            result = GitlabCommitStatusCache.CLAIMED;
+        }};
+
+        subject.build(cause, new HashMap<String, String>(), project, mergeRequest, noteIndex);
 
         new Verifications() {{
             trigger.startJob((GitlabCause) any);
@@ -146,7 +191,7 @@ public class GitlabBuilds_build_Test {
             result = "jenkins";
         }};
 
-        subject.build(cause, new HashMap<String, String>(), project, mergeRequest);
+        subject.build(cause, new HashMap<String, String>(), project, mergeRequest, noteIndex);
 
         new Verifications() {{
             trigger.startJob((GitlabCause) any);
@@ -162,10 +207,43 @@ public class GitlabBuilds_build_Test {
             result = "Build";
         }};
 
-        subject.build(cause, new HashMap<String, String>(), project, mergeRequest);
+        subject.build(cause, new HashMap<String, String>(), project, mergeRequest, noteIndex);
+
+        new Verifications() {{
+            trigger.startJob((GitlabCause) any);
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void builds_oneOfSeveralLabels() throws IOException {
+
+        new NonStrictExpectations() {{
+            trigger.getTagFilter();
+            result = "Build, Deploy";
+            mergeRequest.getLabels();
+            result = new String[] {"Deploy"};
+        }};
+
+        subject.build(cause, new HashMap<String, String>(), project, mergeRequest, noteIndex);
 
         new Verifications() {{
             trigger.startJob((GitlabCause) any);
+        }};
+    }
+
+    @Test
+    public void doesNotAskGitlab_filtered() throws IOException {
+
+        new NonStrictExpectations() {{
+            trigger.getTagFilter();
+            result = "Build";
+        }};
+
+        subject.build(cause, new HashMap<String, String>(), project, mergeRequest, noteIndex);
+
+        new Verifications() {{
+            api.getCommitStatuses((GitlabProject) any, anyString);
             times = 0;
         }};
     }
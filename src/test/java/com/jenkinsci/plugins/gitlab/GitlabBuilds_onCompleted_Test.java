@@ -0,0 +1,145 @@
+package com.jenkinsci.plugins.gitlab;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Queue;
+import hudson.model.Result;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import mockit.Deencapsulation;
+import mockit.Injectable;
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.models.GitlabMergeRequest;
+import org.gitlab.api.models.GitlabProject;
+import org.jenkinsci.plugins.gitlab.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+
+@RunWith(JMockit.class)
+public class GitlabBuilds_onCompleted_Test {
+    @Mocked Gitlab gitlab;
+    @Mocked GitlabAPI api;
+    @Mocked Jenkins jenkins;
+    @Mocked Queue.WaitingItem waitingItem;
+    @Mocked AbstractBuild build;
+    @Injectable GitlabBuildTrigger trigger;
+    @Injectable GitlabMergeRequestBuilder builder;
+
+    GitlabProject project = new GitlabProject();
+    GitlabRepository repository;
+    GitlabBuilds subject;
+
+    GitlabCause cause = new GitlabCause(
+            1,
+            2,
+            "group/project",
+            "sourceRepo",
+            "feature",
+            "master",
+            new HashMap<String, String>(),
+            "title",
+            "description",
+            4,
+            4,
+            "head-sha"
+    );
+
+    @BeforeClass
+    public static void beforeClass() {
+        new MockUp<GitlabBuildTrigger.GitlabBuildTriggerDescriptor>() {
+            @Mock
+            void load() {
+            }
+        };
+
+        new MockUp<Secret>() {
+            @Mock
+            Secret fromString(String data) {
+                return null;
+            }
+        };
+    }
+
+    @Before
+    public void before() throws Exception {
+        // deliver right away instead of on the publisher threads
+        new MockUp<GitlabPublisher>() {
+            @Mock
+            boolean publish(String key, String description, GitlabPublisher.Delivery delivery) throws IOException {
+                delivery.deliver();
+                return true;
+            }
+        };
+
+        new NonStrictExpectations() {{
+            Jenkins.getInstance(); result = jenkins;
+            jenkins.getRootUrl(); result = "http://jenkins/";
+            jenkins.getQueue().getItem(anyLong); result = waitingItem;
+
+            builder.getGitlab(); result = gitlab;
+            builder.getTrigger(); result = trigger;
+            gitlab.get(); result = api;
+            api.getUrl(anyString); result = new URL("http://gitlab/group/project");
+            trigger.getCommitStatusContext(); result = "jenkins";
+            trigger.getBuilder(); result = builder;
+
+            waitingItem.getId(); result = 11L;
+            waitingItem.getUrl(); result = "queue/item/11/";
+            waitingItem.getCauses(); result = Collections.singletonList(cause);
+
+            build.getCause(GitlabCause.class); result = cause;
+            build.getUrl(); result = "job/project/1/";
+            build.getResult(); result = Result.SUCCESS;
+        }};
+
+        project.setId(4);
+        project.setPathWithNamespace("group/project");
+
+        GitlabMergeRequest mergeRequest = new GitlabMergeRequest();
+        mergeRequest.setId(1);
+        mergeRequest.setIid(2);
+        mergeRequest.setSourceProjectId(4);
+        mergeRequest.setSourceBranch("feature");
+        mergeRequest.setTargetBranch("master");
+
+        GitlabMergeRequestMap mergeRequests = new GitlabMergeRequestMap();
+        mergeRequests.put(1, Deencapsulation.newInstance(GitlabMergeRequestWrapper.class,
+                new Class<?>[] {GitlabMergeRequest.class, GitlabMergeRequestBuilder.class, GitlabProject.class},
+                mergeRequest, builder, project));
+
+        repository = new GitlabRepository("group/project", builder, mergeRequests);
+        Deencapsulation.setField(repository, "project", project);
+        subject = new GitlabBuilds(trigger, repository);
+    }
+
+    @Test
+    public void publishesOneStatusPerTransitionWithoutLookups() throws Exception {
+        new GitlabQueueListener().onEnterWaiting(waitingItem);
+        subject.onStarted(build);
+        subject.onCompleted(build);
+
+        new Verifications() {{
+            gitlab.changeCommitStatus(4, "feature", "head-sha", "pending", anyString, anyString); times = 1;
+            gitlab.changeCommitStatus(4, "feature", "head-sha", "running", anyString, "jenkins"); times = 1;
+            gitlab.changeCommitStatus(4, "feature", "head-sha", "success", anyString, "jenkins"); times = 1;
+            gitlab.changeCommitStatus((Integer) any, anyString, anyString, anyString, anyString, anyString); times = 3;
+
+            api.getMergeRequest((GitlabProject) any, (Integer) any); times = 0;
+            api.getCommits((GitlabMergeRequest) any); times = 0;
+            api.getProject((Integer) any); times = 0;
+            gitlab.getProject((Integer) any); times = 0;
+        }};
+    }
+}
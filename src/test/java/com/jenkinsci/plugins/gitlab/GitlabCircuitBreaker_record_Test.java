@@ -0,0 +1,64 @@
+package com.jenkinsci.plugins.gitlab;
+
+import org.jenkinsci.plugins.gitlab.GitlabCircuitBreaker;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GitlabCircuitBreaker_record_Test {
+
+    GitlabCircuitBreaker subject;
+
+    @Before
+    public void before() {
+        subject = new GitlabCircuitBreaker();
+    }
+
+    @Test
+    public void opensWhenMostRequestsFail() {
+        for (int i = 0; i < 10; i++) {
+            subject.recordCall();
+            if (i % 2 == 0) {
+                subject.recordFailure();
+            }
+        }
+
+        Assert.assertTrue(subject.isOpen());
+        Assert.assertEquals(1, subject.getOpenedCount());
+        Assert.assertFalse(subject.startProbe());
+    }
+
+    @Test
+    public void staysClosedWithFewFailures() {
+        for (int i = 0; i < 10; i++) {
+            subject.recordCall();
+        }
+        subject.recordFailure();
+        subject.recordFailure();
+
+        Assert.assertFalse(subject.isOpen());
+    }
+
+    @Test
+    public void staysClosedWithTooFewRequests() {
+        for (int i = 0; i < 3; i++) {
+            subject.recordCall();
+            subject.recordFailure();
+        }
+
+        Assert.assertFalse(subject.isOpen());
+    }
+
+    @Test
+    public void successfulProbeCloses() {
+        for (int i = 0; i < 10; i++) {
+            subject.recordCall();
+            subject.recordFailure();
+        }
+
+        subject.probeSucceeded();
+
+        Assert.assertFalse(subject.isOpen());
+        Assert.assertEquals(GitlabCircuitBreaker.State.CLOSED, subject.getState());
+    }
+}
@@ -0,0 +1,104 @@
+package com.jenkinsci.plugins.gitlab;
+
+import mockit.Deencapsulation;
+import org.gitlab.api.models.GitlabMergeRequest;
+import org.gitlab.api.models.GitlabProject;
+import org.jenkinsci.plugins.gitlab.GitlabMergeRequestBuilder;
+import org.jenkinsci.plugins.gitlab.GitlabMergeRequestMap;
+import org.jenkinsci.plugins.gitlab.GitlabMergeRequestWrapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GitlabMergeRequestMap_computeIfAbsent_Test {
+
+    static final int THREADS = 8;
+    static final int MERGE_REQUESTS = 2000;
+
+    GitlabMergeRequestMap subject = new GitlabMergeRequestMap();
+    GitlabProject project = new GitlabProject();
+    AtomicInteger created = new AtomicInteger();
+
+    @Test
+    public void concurrentCallersShareOneWrapper() throws Exception {
+        project.setId(1);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<GitlabMergeRequestWrapper[]>> results = new ArrayList<Future<GitlabMergeRequestWrapper[]>>();
+
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                results.add(executor.submit(new Callable<GitlabMergeRequestWrapper[]>() {
+                    @Override
+                    public GitlabMergeRequestWrapper[] call() throws Exception {
+                        start.await();
+                        GitlabMergeRequestWrapper[] seen = new GitlabMergeRequestWrapper[MERGE_REQUESTS];
+                        for (int id = 0; id < MERGE_REQUESTS; id++) {
+                            seen[id] = subject.computeIfAbsent(id, factory(id));
+                            if (id % 3 == 0) {
+                                subject.get(id / 2);
+                            }
+                        }
+                        return seen;
+                    }
+                }));
+            }
+            start.countDown();
+
+            GitlabMergeRequestWrapper[] first = results.get(0).get();
+            for (Future<GitlabMergeRequestWrapper[]> result : results) {
+                GitlabMergeRequestWrapper[] seen = result.get();
+                for (int id = 0; id < MERGE_REQUESTS; id++) {
+                    Assert.assertSame(first[id], seen[id]);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // racing threads may create a wrapper each, only one of them is kept
+        Assert.assertTrue(created.get() >= MERGE_REQUESTS);
+        Assert.assertEquals(MERGE_REQUESTS, subject.size());
+        Assert.assertEquals(MERGE_REQUESTS, subject.toMap().size());
+    }
+
+    @Test
+    public void removesAndReadds() {
+        project.setId(1);
+        for (int id = 0; id < 100; id++) {
+            subject.computeIfAbsent(id, factory(id));
+        }
+        for (int id = 0; id < 100; id += 2) {
+            subject.remove(id);
+        }
+
+        Assert.assertEquals(50, subject.size());
+        Assert.assertNull(subject.get(10));
+        Assert.assertNotNull(subject.get(11));
+        subject.computeIfAbsent(10, factory(10));
+        Assert.assertEquals(101, created.get());
+    }
+
+    private GitlabMergeRequestMap.Factory factory(final int id) {
+        return new GitlabMergeRequestMap.Factory() {
+            @Override
+            public GitlabMergeRequestWrapper create() {
+                created.incrementAndGet();
+                GitlabMergeRequest mergeRequest = new GitlabMergeRequest();
+                mergeRequest.setId(id);
+                mergeRequest.setSourceProjectId(1);
+                return Deencapsulation.newInstance(GitlabMergeRequestWrapper.class,
+                        new Class<?>[] {GitlabMergeRequest.class, GitlabMergeRequestBuilder.class, GitlabProject.class},
+                        mergeRequest, null, project);
+            }
+        };
+    }
+}
@@ -7,6 +7,7 @@ import mockit.Mock;
 import mockit.MockUp;
 import mockit.NonStrictExpectations;
 import mockit.Tested;
+import mockit.Verifications;
 import mockit.integration.junit4.JMockit;
 import org.gitlab.api.GitlabAPI;
 import org.gitlab.api.models.GitlabCommit;
@@ -22,7 +23,9 @@ import org.junit.runner.RunWith;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import static mockit.Deencapsulation.getField;
@@ -60,6 +63,7 @@ public class GitlabMergeRequestWrapper_check_Test {
         };
 
         new NonStrictExpectations() {{
+            builder.getGitlab().get(); result = api;
             api.getCommits(mergeRequest); result = Arrays.asList(commit);
             trigger.getAssigneeFilter(); result = "";
             trigger.getTriggerComment(); result = "test-trigger-comment";
@@ -84,11 +88,39 @@ public class GitlabMergeRequestWrapper_check_Test {
     	setAReachableLatestCommit();
     	
         subject.check(mergeRequest);
+
+        // without a head sha the commits are listed, this is what the head sha shortcut saves
+        new Verifications() {{
+            api.getCommits(mergeRequest); times = 1;
+        }};
+    }
+
+    @Test
+    public void usesHeadShaWithoutListingCommits() throws Exception {
+        final List<GitlabCommit> commits = new ArrayList<GitlabCommit>();
+        for (int i = 0; i < 1000; i++) {
+            GitlabCommit c = new GitlabCommit();
+            c.setId("commit-" + i);
+            commits.add(c);
+        }
+
+        new MockUp<GitlabMergeRequestWrapper>() {
+            @Mock(invocations = 1) void build(Map m, String s, GitlabMergeRequest mr) {}
+        };
+
+        new NonStrictExpectations() {{
+            mergeRequest.getSha(); result = "head-sha";
+            api.getCommits(mergeRequest); result = commits;
+        }};
+
+        subject.check(mergeRequest);
+
+        new Verifications() {{
+            api.getCommits((GitlabMergeRequest) any); times = 0;
+        }};
     }
 
     private void setAReachableLatestCommit() {
-        ((GitlabMergeRequestStatus) getField(subject, "mergeRequestStatus")).setLatestCommitOfMergeRequest(
-                mergeRequest.getId().toString(),
-                commit.getId());
+        ((GitlabMergeRequestStatus) getField(subject, "mergeRequestStatus")).setLatestCommit(commit.getId());
     }
 }
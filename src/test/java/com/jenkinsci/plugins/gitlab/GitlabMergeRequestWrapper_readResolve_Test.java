@@ -0,0 +1,56 @@
+package com.jenkinsci.plugins.gitlab;
+
+import mockit.Deencapsulation;
+import org.gitlab.api.models.GitlabMergeRequest;
+import org.gitlab.api.models.GitlabProject;
+import org.jenkinsci.plugins.gitlab.GitlabMergeRequestBuilder;
+import org.jenkinsci.plugins.gitlab.GitlabMergeRequestWrapper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import static mockit.Deencapsulation.getField;
+import static mockit.Deencapsulation.setField;
+
+public class GitlabMergeRequestWrapper_readResolve_Test {
+
+    GitlabProject project = new GitlabProject();
+    GitlabProject fork = new GitlabProject();
+    GitlabMergeRequestWrapper subject;
+
+    @Before
+    public void before() {
+        project.setId(1);
+        fork.setId(7);
+        fork.setPathWithNamespace("group/fork");
+
+        GitlabMergeRequest mergeRequest = new GitlabMergeRequest();
+        mergeRequest.setId(12);
+        mergeRequest.setIid(3);
+        mergeRequest.setSourceProjectId(1);
+        mergeRequest.setSourceBranch("feature");
+        mergeRequest.setTargetBranch("master");
+        subject = Deencapsulation.newInstance(GitlabMergeRequestWrapper.class,
+                new Class<?>[] {GitlabMergeRequest.class, GitlabMergeRequestBuilder.class, GitlabProject.class},
+                mergeRequest, null, project);
+    }
+
+    @Test
+    public void migratesLegacyState() {
+        setField(subject, "version", 0);
+        setField(subject, "sourceProject", fork);
+        setField(subject, "title", "title");
+        setField(subject, "description", "a long description");
+        setField(subject, "sourceBranch", new String("feature"));
+
+        Deencapsulation.invoke(subject, "readResolve");
+
+        Assert.assertEquals(Integer.valueOf(7), subject.getSourceProjectId());
+        Assert.assertEquals("group/fork", subject.getSourceName());
+        Assert.assertNull(getField(subject, "sourceProject"));
+        Assert.assertNull(getField(subject, "title"));
+        Assert.assertNull(getField(subject, "description"));
+        Assert.assertSame("feature", subject.getSourceBranch());
+        Assert.assertEquals(1, getField(subject, "version"));
+    }
+}
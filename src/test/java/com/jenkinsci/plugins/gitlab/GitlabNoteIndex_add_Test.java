@@ -0,0 +1,57 @@
+package com.jenkinsci.plugins.gitlab;
+
+import mockit.Deencapsulation;
+import org.gitlab.api.models.GitlabNote;
+import org.jenkinsci.plugins.gitlab.GitlabNoteIndex;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+public class GitlabNoteIndex_add_Test {
+
+    Pattern commands = Pattern.compile("@bot\\s*:\\s*(USE|REMOVE)-PARAMETER\\s*:\\s*(\\w+)\\s*(?:=\\s*(.*))?", Pattern.CASE_INSENSITIVE);
+
+    GitlabNoteIndex subject;
+
+    @Before
+    public void before() {
+        subject = Deencapsulation.newInstance(GitlabNoteIndex.class);
+    }
+
+    @Test
+    public void foldsParametersAcrossChecks() {
+        subject.add(Arrays.asList(
+                note(1, "@bot: USE-PARAMETER: first=1"),
+                note(2, "@bot: USE-PARAMETER: second=2")), commands);
+        subject.add(Collections.singletonList(note(3, "@bot: REMOVE-PARAMETER: first")), commands);
+
+        Assert.assertEquals(1, subject.getCustomParameters().size());
+        Assert.assertEquals("2", subject.getCustomParameters().get("second"));
+        Assert.assertEquals(Integer.valueOf(3), subject.getLastNoteId());
+        Assert.assertEquals("@bot: REMOVE-PARAMETER: first", subject.getLastNoteBody());
+    }
+
+    @Test
+    public void ignoresKnownNotes() {
+        subject.add(Collections.singletonList(note(5, "@bot: USE-PARAMETER: key=new")), commands);
+
+        Assert.assertFalse(subject.isNew(note(5, "")));
+        Assert.assertTrue(subject.isNew(note(6, "")));
+
+        subject.add(Collections.singletonList(note(4, "@bot: USE-PARAMETER: key=old")), commands);
+
+        Assert.assertEquals("new", subject.getCustomParameters().get("key"));
+        Assert.assertEquals(Integer.valueOf(5), subject.getLastNoteId());
+    }
+
+    private static GitlabNote note(int id, String body) {
+        GitlabNote note = new GitlabNote();
+        note.setId(id);
+        note.setBody(body);
+        return note;
+    }
+}
@@ -0,0 +1,68 @@
+package com.jenkinsci.plugins.gitlab;
+
+import org.gitlab.api.models.GitlabProject;
+import org.jenkinsci.plugins.gitlab.GitlabProjectCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class GitlabProjectCache_get_Test {
+
+    @Test
+    public void findsProjectByIdAndPath() {
+        GitlabProjectCache subject = new GitlabProjectCache(10, TimeUnit.MINUTES, 10);
+        GitlabProject project = project(1, "Group/Project");
+
+        subject.put(project);
+
+        Assert.assertSame(project, subject.get(1));
+        Assert.assertSame(project, subject.get("group/project"));
+        Assert.assertEquals(2, subject.getHitCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        GitlabProjectCache subject = new GitlabProjectCache(10, TimeUnit.MINUTES, 2);
+
+        subject.put(project(1, "group/one"));
+        subject.put(project(2, "group/two"));
+        subject.get(1);
+        subject.put(project(3, "group/three"));
+
+        Assert.assertNotNull(subject.get(1));
+        Assert.assertNull(subject.get(2));
+        Assert.assertNull(subject.get("group/two"));
+        Assert.assertEquals(1, subject.getEvictionCount());
+    }
+
+    @Test
+    public void expiredEntriesAreMisses() throws Exception {
+        GitlabProjectCache subject = new GitlabProjectCache(1, TimeUnit.MILLISECONDS, 10);
+
+        subject.put(project(1, "group/project"));
+        Thread.sleep(10);
+
+        Assert.assertNull(subject.get(1));
+        Assert.assertEquals(0, subject.size());
+        Assert.assertEquals(1, subject.getMissCount());
+    }
+
+    @Test
+    public void movedProjectKeepsNewPath() {
+        GitlabProjectCache subject = new GitlabProjectCache(10, TimeUnit.MINUTES, 10);
+
+        subject.put(project(1, "group/project"));
+        subject.put(project(2, "group/project"));
+        subject.invalidate(1);
+
+        Assert.assertEquals(Integer.valueOf(2), subject.get("group/project").getId());
+    }
+
+    private static GitlabProject project(int id, String path) {
+        GitlabProject project = new GitlabProject();
+        project.setId(id);
+        project.setPathWithNamespace(path);
+        return project;
+    }
+}
@@ -0,0 +1,58 @@
+package com.jenkinsci.plugins.gitlab;
+
+import hudson.model.Queue;
+import jenkins.model.Jenkins;
+import mockit.Deencapsulation;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.integration.junit4.JMockit;
+import org.jenkinsci.plugins.gitlab.GitlabQueueListener;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JMockit.class)
+public class GitlabQueueListener_isQueued_Test {
+
+    static final long ITEM_ID = 7;
+
+    @Mocked Jenkins jenkins;
+    @Mocked Queue queue;
+    @Mocked Queue.WaitingItem waitingItem;
+    @Mocked Queue.LeftItem leftItem;
+
+    @Test
+    public void waitingItemIsQueued() {
+        queueReturns(waitingItem);
+
+        Assert.assertTrue(isQueued());
+    }
+
+    @Test
+    public void startedOrCancelledItemIsNotQueued() {
+        // the queue keeps items that left it for a while and still returns them by id
+        queueReturns(leftItem);
+
+        Assert.assertFalse(isQueued());
+    }
+
+    @Test
+    public void forgottenItemIsNotQueued() {
+        queueReturns(null);
+
+        Assert.assertFalse(isQueued());
+    }
+
+    private void queueReturns(final Queue.Item item) {
+        new NonStrictExpectations() {{
+            Jenkins.getInstance(); result = jenkins;
+            jenkins.getQueue(); result = queue;
+            queue.getItem(ITEM_ID); result = item;
+        }};
+    }
+
+    private static boolean isQueued() {
+        return Deencapsulation.<Boolean>invoke(GitlabQueueListener.class, "isQueued",
+                new Class<?>[] {long.class}, ITEM_ID);
+    }
+}
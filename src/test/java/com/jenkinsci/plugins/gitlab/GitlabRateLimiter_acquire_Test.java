@@ -0,0 +1,52 @@
+package com.jenkinsci.plugins.gitlab;
+
+import org.jenkinsci.plugins.gitlab.GitlabRateLimiter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class GitlabRateLimiter_acquire_Test {
+
+    @Test
+    public void disabledLimitDoesNotWait() throws Exception {
+        GitlabRateLimiter subject = new GitlabRateLimiter(0);
+
+        for (int i = 0; i < 100; i++) {
+            subject.acquire(GitlabRateLimiter.Priority.LOW);
+        }
+
+        Assert.assertFalse(subject.isEnabled());
+        Assert.assertEquals(0, subject.getThrottledCount());
+    }
+
+    @Test
+    public void disabledLimitWaitsForBackOff() throws Exception {
+        GitlabRateLimiter subject = new GitlabRateLimiter(0);
+        subject.backOff(200);
+
+        long started = System.nanoTime();
+        subject.acquire(GitlabRateLimiter.Priority.HIGH);
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        Assert.assertTrue("waited " + waited + "ms", waited >= 150);
+        Assert.assertEquals(1, subject.getThrottledCount());
+        Assert.assertEquals(1, subject.getRateLimitedCount());
+
+        // the back off has passed
+        subject.acquire(GitlabRateLimiter.Priority.LOW);
+        Assert.assertEquals(1, subject.getThrottledCount());
+    }
+
+    @Test
+    public void enabledLimitWaitsForBackOff() throws Exception {
+        GitlabRateLimiter subject = new GitlabRateLimiter(1000);
+        subject.backOff(200);
+
+        long started = System.nanoTime();
+        subject.acquire(GitlabRateLimiter.Priority.HIGH);
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        Assert.assertTrue("waited " + waited + "ms", waited >= 150);
+    }
+}
@@ -0,0 +1,127 @@
+package com.jenkinsci.plugins.gitlab;
+
+import antlr.ANTLRException;
+import hudson.util.Secret;
+import mockit.Mock;
+import mockit.MockUp;
+import org.jenkinsci.plugins.gitlab.GitlabBuildTrigger;
+import org.jenkinsci.plugins.gitlab.GitlabTriggerRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class GitlabTriggerRegistry_lookup_Test {
+
+    GitlabTriggerRegistry subject;
+
+    @BeforeClass
+    public static void beforeClass() {
+        new MockUp<GitlabBuildTrigger.GitlabBuildTriggerDescriptor>() {
+            @Mock
+            void load() {
+            }
+        };
+
+        new MockUp<Secret>() {
+            @Mock
+            Secret fromString(String data) {
+                return null;
+            }
+        };
+    }
+
+    @Before
+    public void before() {
+        subject = new GitlabTriggerRegistry();
+    }
+
+    @Test
+    public void severalJobsPerProject() throws Exception {
+        GitlabBuildTrigger lint = trigger("group/project");
+        GitlabBuildTrigger unit = trigger("group/project");
+
+        subject.register("lint", lint);
+        subject.register("unit", unit);
+
+        Assert.assertEquals(2, subject.findByProjectPath("group/project").size());
+        Assert.assertTrue(subject.findByProjectPath("group/project").contains(lint));
+        Assert.assertTrue(subject.findByProjectPath("group/project").contains(unit));
+    }
+
+    @Test
+    public void findByProjectId() throws Exception {
+        GitlabBuildTrigger trigger = trigger("group/project");
+
+        subject.register("job", trigger);
+        Assert.assertTrue(subject.findByProjectId(42).isEmpty());
+
+        subject.setProjectId("job", 42);
+        Assert.assertEquals(1, subject.findByProjectId(42).size());
+        Assert.assertSame(trigger, subject.findByProjectId(42).iterator().next());
+    }
+
+    @Test
+    public void findByProjectIncludesJobsWithoutProjectId() throws Exception {
+        GitlabBuildTrigger resolved = trigger("group/project");
+        GitlabBuildTrigger unresolved = trigger("group/project");
+
+        subject.register("resolved", resolved);
+        subject.register("unresolved", unresolved);
+        subject.setProjectId("resolved", 42);
+
+        Assert.assertEquals(1, subject.findByProjectId(42).size());
+        Assert.assertEquals(2, subject.findByProject(42, "group/project").size());
+        Assert.assertTrue(subject.findByProject(42, "group/project").contains(unresolved));
+        Assert.assertEquals(1, subject.findByProject(42, null).size());
+    }
+
+    @Test
+    public void reRegisteringJobReplacesTrigger() throws Exception {
+        GitlabBuildTrigger old = trigger("group/old");
+        GitlabBuildTrigger current = trigger("group/new");
+
+        subject.register("job", old);
+        subject.setProjectId("job", 1);
+        subject.register("job", current);
+
+        Assert.assertTrue(subject.findByProjectPath("group/old").isEmpty());
+        Assert.assertTrue(subject.findByProjectId(1).isEmpty());
+        Assert.assertSame(current, subject.findByProjectPath("group/new").iterator().next());
+        Assert.assertEquals(1, subject.size());
+    }
+
+    @Test
+    public void unregisterIgnoresReplacedTrigger() throws Exception {
+        GitlabBuildTrigger old = trigger("group/project");
+        GitlabBuildTrigger current = trigger("group/project");
+
+        subject.register("job", old);
+        subject.register("job", current);
+        subject.unregister("job", old);
+
+        Assert.assertSame(current, subject.findByProjectPath("group/project").iterator().next());
+
+        subject.unregister("job", current);
+        Assert.assertTrue(subject.findByProjectPath("group/project").isEmpty());
+        Assert.assertEquals(0, subject.size());
+    }
+
+    @Test
+    public void lookupWithManyRegisteredTriggers() throws Exception {
+        int count = 10000;
+        for (int i = 0; i < count; i++) {
+            subject.register("job-" + i, trigger("group/project-" + i));
+            subject.setProjectId("job-" + i, i);
+        }
+
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(1, subject.findByProjectId(i).size());
+            Assert.assertEquals(1, subject.findByProjectPath("group/project-" + i).size());
+        }
+    }
+
+    private GitlabBuildTrigger trigger(String projectPath) throws ANTLRException {
+        return new GitlabBuildTrigger("", projectPath, "", false, "", "", "", false, false, false);
+    }
+}